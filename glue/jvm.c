@@ -30,6 +30,8 @@
 #include <windows.h>
 #else
 #include <dlfcn.h>
+#include <pthread.h>
+#include <sys/time.h>
 #endif
 
 #define MAX_ERROR_BUFFER_LENGTH 1024
@@ -138,6 +140,129 @@ CreateJavaVMAnon(JavaVMOption * options, int nOptions)
 	return CreateJavaVMDLL(dllName, options, nOptions);
 }
 
+/* Per-thread JNIEnv cache.
+ *
+ * Looking up the JNIEnv with (*jvm)->GetEnv on every call is
+ * comparatively expensive, so each thread keeps the JNIEnv it got
+ * the first time in thread-local storage. The entry also remembers
+ * whether the glue attached the thread, in which case the thread
+ * is detached when it ends; threads attached by somebody else, eg.
+ * Java threads calling into the CLR, are left alone.
+ */
+typedef struct {
+	JNIEnv *env;
+	int attached;
+} ThreadEnv;
+
+/* attach unknown threads as daemons, see SetAttachAsDaemon() */
+static int attach_as_daemon = 0;
+
+static void
+ReleaseThreadEnv(void *data)
+{
+	ThreadEnv *te = (ThreadEnv *) data;
+
+	if (te == NULL)
+		return;
+	if (te->attached && jvm != NULL)
+		(*jvm)->DetachCurrentThread(jvm);
+	free(te);
+}
+
+#ifdef _JNI_PLATFORM_WIN32
+static DWORD env_tls = TLS_OUT_OF_INDEXES;
+
+BOOL WINAPI
+DllMain(HINSTANCE instance, DWORD reason, LPVOID reserved)
+{
+	switch (reason) {
+	case DLL_PROCESS_ATTACH:
+		env_tls = TlsAlloc();
+		break;
+	case DLL_THREAD_DETACH:
+		/* the thread is ending: detach it if we attached it */
+		if (env_tls != TLS_OUT_OF_INDEXES)
+			ReleaseThreadEnv(TlsGetValue(env_tls));
+		break;
+	case DLL_PROCESS_DETACH:
+		if (env_tls != TLS_OUT_OF_INDEXES)
+			TlsFree(env_tls);
+		break;
+	}
+	return TRUE;
+}
+
+static ThreadEnv *
+GetThreadEnv()
+{
+	return (ThreadEnv *) TlsGetValue(env_tls);
+}
+
+static void
+SetThreadEnv(ThreadEnv *te)
+{
+	TlsSetValue(env_tls, te);
+}
+#else
+static pthread_key_t env_key;
+static pthread_once_t env_key_once = PTHREAD_ONCE_INIT;
+
+static void
+CreateEnvKey()
+{
+	/* the destructor runs when the thread ends */
+	pthread_key_create(&env_key, ReleaseThreadEnv);
+}
+
+static ThreadEnv *
+GetThreadEnv()
+{
+	pthread_once(&env_key_once, CreateEnvKey);
+	return (ThreadEnv *) pthread_getspecific(env_key);
+}
+
+static void
+SetThreadEnv(ThreadEnv *te)
+{
+	pthread_setspecific(env_key, te);
+}
+#endif
+
+static void
+CacheEnv(JNIEnv *env, int attached)
+{
+	ThreadEnv *te = GetThreadEnv();
+
+	if (te == NULL) {
+		te = (ThreadEnv *) malloc(sizeof(ThreadEnv));
+		if (te == NULL)
+			return;
+		SetThreadEnv(te);
+	}
+	te->env = env;
+	te->attached = attached;
+}
+
+static void
+ForgetEnv()
+{
+	ThreadEnv *te = GetThreadEnv();
+
+	if (te != NULL) {
+		te->env = NULL;
+		te->attached = 0;
+	}
+}
+
+/** Attach threads the glue has not seen yet as daemon threads, so
+ * they do not keep the JavaVM from exiting.
+ */
+void
+SetAttachAsDaemon(int daemon)
+{
+	attach_as_daemon = daemon;
+}
+
 jint
 DestroyJavaVM()
 {
@@ -145,6 +270,8 @@ DestroyJavaVM()
 	fprintf(stdout, "Destroying JavaVM\n");
 	r = (*jvm)->DestroyJavaVM(jvm);
 	fprintf(stdout, "Destroyed JavaVM (%d)\n", r);
+	/* DestroyJavaVM detaches the current thread */
+	ForgetEnv();
 	return r;
 }
 
@@ -155,23 +282,37 @@ DestroyJavaVM()
  * Each JNI call via P/Invoke must first obtain the JNIEnv
  * associated with the current thread, or if the current thread 
  * does not have a JNIEnv, it must attach the current thread to 
- * a JNIEnv.
+ * a JNIEnv. The JNIEnv is then cached for the thread, see
+ * ThreadEnv above.
  */
 JNIEnv *
 GetEnv()
 {
 	JNIEnv *env;
 	jint res;
+	ThreadEnv *te = GetThreadEnv();
+
+	if (te != NULL && te->env != NULL)
+		return te->env;
 
 	assert(jvm != NULL);
 	res = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
 	if (res == JNI_EVERSION) {
 		Error("JRE 1.1 not supported!");
 	} else if (res == JNI_EDETACHED) {
-		res = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL);
+		if (attach_as_daemon)
+			res = (*jvm)->AttachCurrentThreadAsDaemon(jvm,
+				(void **) &env, NULL);
+		else
+			res = (*jvm)->AttachCurrentThread(jvm,
+				(void **) &env, NULL);
 		if (res < 0) {
 			Error("Can't attach current thread");
+		} else {
+			CacheEnv(env, 1);
 		}
+	} else if (res == JNI_OK) {
+		CacheEnv(env, 0);
 	}
 
 	return env;
@@ -182,9 +323,38 @@ AttachCurrentThread()
 {
 	JNIEnv *env;
 	jint res;
+	ThreadEnv *te = GetThreadEnv();
+
+	/* already attached, maybe not by us */
+	if (te != NULL && te->env != NULL)
+		return te->env;
+
 	res = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL);
 	if (res < 0) {
 		Error("Can't attach current thread");
+	} else {
+		CacheEnv(env, 1);
+	}
+
+	return env;
+}
+
+JNIEnv *
+AttachCurrentThreadAsDaemon()
+{
+	JNIEnv *env;
+	jint res;
+	ThreadEnv *te = GetThreadEnv();
+
+	/* already attached, maybe not by us */
+	if (te != NULL && te->env != NULL)
+		return te->env;
+
+	res = (*jvm)->AttachCurrentThreadAsDaemon(jvm, (void **) &env, NULL);
+	if (res < 0) {
+		Error("Can't attach current thread as daemon");
+	} else {
+		CacheEnv(env, 1);
 	}
 
 	return env;
@@ -197,11 +367,573 @@ DetachCurrentThread()
 	res = (*jvm)->DetachCurrentThread(jvm);
 	if (res < 0) {
 		Error("Can't detach current thread");
+	} else {
+		ForgetEnv();
 	}
 
 	return res;
 }
 
+/* reference management, see Caffeine.Jni.JReferences */
+
+/** Replaces a local reference with a global one in a single call.
+ */
+jobject
+PromoteLocalRef(jobject lobj)
+{
+	JNIEnv *env = GetEnv();
+	jobject gref;
+
+	if (lobj == NULL)
+		return NULL;
+	gref = (*env)->NewGlobalRef(env, lobj);
+	(*env)->DeleteLocalRef(env, lobj);
+	return gref;
+}
+
+void
+DeleteGlobalRefs(jobject *refs, jint count)
+{
+	JNIEnv *env = GetEnv();
+	jint i;
+
+	for (i = 0; i < count; i++)
+		(*env)->DeleteGlobalRef(env, refs[i]);
+}
+
+void
+DeleteWeakGlobalRefs(jweak *refs, jint count)
+{
+	JNIEnv *env = GetEnv();
+	jint i;
+
+	for (i = 0; i < count; i++)
+		(*env)->DeleteWeakGlobalRef(env, refs[i]);
+}
+
+/** Copies the name of the class of obj, eg. "java.lang.String", into
+ * buf, truncated to capacity characters, and returns its length. Used
+ * to sample the references that are alive.
+ */
+jsize
+GetObjectClassName(jobject obj, jchar * buf, jsize capacity)
+{
+	static jmethodID getName;
+	JNIEnv *env = GetEnv();
+	jclass clazz;
+	jclass meta;
+	jstring name;
+	jsize len = 0;
+
+	/* a cleared weak reference */
+	if ((*env)->IsSameObject(env, obj, NULL))
+		return 0;
+	clazz = (*env)->GetObjectClass(env, obj);
+	if (getName == NULL) {
+		meta = (*env)->GetObjectClass(env, clazz);
+		getName = (*env)->GetMethodID(env, meta, "getName",
+					      "()Ljava/lang/String;");
+		(*env)->DeleteLocalRef(env, meta);
+	}
+	name = (*env)->CallObjectMethod(env, clazz, getName);
+	if ((*env)->ExceptionCheck(env)) {
+		(*env)->ExceptionClear(env);
+	} else if (name != NULL) {
+		len = (*env)->GetStringLength(env, name);
+		if (len > capacity)
+			len = capacity;
+		(*env)->GetStringRegion(env, name, 0, len, buf);
+		(*env)->DeleteLocalRef(env, name);
+	}
+	(*env)->DeleteLocalRef(env, clazz);
+	return len;
+}
+
+/* checked invocation, see Caffeine.Jni.JMethod */
+
+/* modifiers of the type passed to Invoke() */
+#define INVOKE_STATIC 0x100
+#define INVOKE_NEW 0x200
+#define INVOKE_LOCAL 0x400
+
+static jthrowable
+invoke(JNIEnv * env, jobject obj, jmethodID methodID, jint type,
+       jvalue * args, jvalue * result)
+{
+	jthrowable thrown;
+	jobject lobj;
+
+	if (type & INVOKE_NEW) {
+		result->l = (*env)->NewObjectA(env, obj, methodID, args);
+	} else if (type & INVOKE_STATIC) {
+		switch (type & 0xff) {
+		case 'Z':
+			result->z = (*env)->CallStaticBooleanMethodA(env, obj, methodID, args);
+			break;
+		case 'B':
+			result->b = (*env)->CallStaticByteMethodA(env, obj, methodID, args);
+			break;
+		case 'C':
+			result->c = (*env)->CallStaticCharMethodA(env, obj, methodID, args);
+			break;
+		case 'S':
+			result->s = (*env)->CallStaticShortMethodA(env, obj, methodID, args);
+			break;
+		case 'I':
+			result->i = (*env)->CallStaticIntMethodA(env, obj, methodID, args);
+			break;
+		case 'J':
+			result->j = (*env)->CallStaticLongMethodA(env, obj, methodID, args);
+			break;
+		case 'F':
+			result->f = (*env)->CallStaticFloatMethodA(env, obj, methodID, args);
+			break;
+		case 'D':
+			result->d = (*env)->CallStaticDoubleMethodA(env, obj, methodID, args);
+			break;
+		case 'L':
+			result->l = (*env)->CallStaticObjectMethodA(env, obj, methodID, args);
+			break;
+		default:
+			(*env)->CallStaticVoidMethodA(env, obj, methodID, args);
+		}
+	} else {
+		switch (type & 0xff) {
+		case 'Z':
+			result->z = (*env)->CallBooleanMethodA(env, obj, methodID, args);
+			break;
+		case 'B':
+			result->b = (*env)->CallByteMethodA(env, obj, methodID, args);
+			break;
+		case 'C':
+			result->c = (*env)->CallCharMethodA(env, obj, methodID, args);
+			break;
+		case 'S':
+			result->s = (*env)->CallShortMethodA(env, obj, methodID, args);
+			break;
+		case 'I':
+			result->i = (*env)->CallIntMethodA(env, obj, methodID, args);
+			break;
+		case 'J':
+			result->j = (*env)->CallLongMethodA(env, obj, methodID, args);
+			break;
+		case 'F':
+			result->f = (*env)->CallFloatMethodA(env, obj, methodID, args);
+			break;
+		case 'D':
+			result->d = (*env)->CallDoubleMethodA(env, obj, methodID, args);
+			break;
+		case 'L':
+			result->l = (*env)->CallObjectMethodA(env, obj, methodID, args);
+			break;
+		default:
+			(*env)->CallVoidMethodA(env, obj, methodID, args);
+		}
+	}
+
+	if ((*env)->ExceptionCheck(env)) {
+		thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+		return thrown;
+	}
+	if (!(type & INVOKE_LOCAL) &&
+	    ((type & INVOKE_NEW) || (type & 0xff) == 'L')) {
+		lobj = result->l;
+		if (lobj != NULL) {
+			result->l = (*env)->NewGlobalRef(env, lobj);
+			(*env)->DeleteLocalRef(env, lobj);
+		}
+	}
+	return NULL;
+}
+
+/** Calls a method and checks for an exception in a single call.
+ * type is the signature character of the return type, 'V' to 'L',
+ * and INVOKE_STATIC if obj is the class of a static method, or
+ * INVOKE_NEW for a constructor of the class obj.
+ * Returns the exception thrown, cleared, as a local reference, or NULL
+ * with the result in *result; objects are returned as global
+ * references, or as local ones with INVOKE_LOCAL.
+ */
+jthrowable
+Invoke(jobject obj, jmethodID methodID, jint type, jvalue * args,
+       jvalue * result)
+{
+	JNIEnv *env = GetEnv();
+	return invoke(env, obj, methodID, type, args, result);
+}
+
+/* one call of a batch, see Caffeine.Jni.JBatch */
+typedef struct {
+	jobject obj;
+	jmethodID methodID;
+	jint type;		/* as for Invoke() */
+	jint args;		/* index of the first argument */
+} BatchCall;
+
+/** Makes count calls in a single call, each as Invoke() would. The
+ * arguments of calls[i] start at args[calls[i].args]; its result goes
+ * to results[i] and the exception it threw, if any, to thrown[i] as a
+ * global reference, so that a large batch does not pile up local
+ * references. Returns the number of calls that threw.
+ */
+jint
+InvokeBatch(BatchCall * calls, jint count, jvalue * args,
+	    jvalue * results, jthrowable * thrown)
+{
+	JNIEnv *env = GetEnv();
+	jthrowable lthrown;
+	jint i, failed = 0;
+
+	for (i = 0; i < count; i++) {
+		lthrown = invoke(env, calls[i].obj, calls[i].methodID,
+				 calls[i].type, args + calls[i].args,
+				 &results[i]);
+		if (lthrown != NULL) {
+			thrown[i] = (*env)->NewGlobalRef(env, lthrown);
+			(*env)->DeleteLocalRef(env, lthrown);
+			failed++;
+		} else {
+			thrown[i] = NULL;
+		}
+	}
+	return failed;
+}
+
+/* instrumentation, see Caffeine.Jni.JInstrumentation */
+
+/** A clock in microseconds, to time calls with.
+ */
+jlong
+Microseconds()
+{
+#ifdef _JNI_PLATFORM_WIN32
+	static LARGE_INTEGER frequency;
+	LARGE_INTEGER now;
+
+	if (frequency.QuadPart == 0)
+		QueryPerformanceFrequency(&frequency);
+	QueryPerformanceCounter(&now);
+	return (jlong) (now.QuadPart / frequency.QuadPart * 1000000
+			+ now.QuadPart % frequency.QuadPart * 1000000
+			/ frequency.QuadPart);
+#else
+	struct timeval now;
+
+	gettimeofday(&now, NULL);
+	return (jlong) now.tv_sec * 1000000 + now.tv_usec;
+#endif
+}
+
+/* string marshalling, see Caffeine.Jni.JString */
+
+/** Copies the characters of string into buf if they fit in capacity
+ * and returns the length of string either way, so that short strings
+ * take a single call.
+ */
+jsize
+GetStringInto(jstring string, jchar * buf, jsize capacity)
+{
+	JNIEnv *env = GetEnv();
+	jsize len = (*env)->GetStringLength(env, string);
+
+	if (len <= capacity)
+		(*env)->GetStringRegion(env, string, 0, len, buf);
+	return len;
+}
+
+/* bulk object arrays, see Caffeine.Jni.JObjectArray */
+
+/** Stores the len elements of array from start into buf, as global
+ * references, or local ones if local is set, and NULL for null
+ * elements. The range must be within the array. Returns 0, or a
+ * negative number if there is no room for the local references.
+ */
+jint
+GetObjectArrayRegion(jobjectArray array, jsize start, jsize len,
+		     jobject * buf, jint local)
+{
+	JNIEnv *env = GetEnv();
+	jobject lobj;
+	jsize i;
+
+	if (local && (*env)->EnsureLocalCapacity(env, len) < 0)
+		return -1;
+	for (i = 0; i < len; i++) {
+		lobj = (*env)->GetObjectArrayElement(env, array, start + i);
+		if (local || lobj == NULL) {
+			buf[i] = lobj;
+		} else {
+			buf[i] = (*env)->NewGlobalRef(env, lobj);
+			(*env)->DeleteLocalRef(env, lobj);
+		}
+	}
+	return 0;
+}
+
+/** Stores the len references in buf, or null for NULL, into array from
+ * start. The range must be within the array. Returns the exception
+ * thrown, cleared, as a local reference, eg. an ArrayStoreException,
+ * or NULL.
+ */
+jthrowable
+SetObjectArrayRegion(jobjectArray array, jsize start, jsize len,
+		     jobject * buf)
+{
+	JNIEnv *env = GetEnv();
+	jthrowable thrown;
+	jsize i;
+
+	for (i = 0; i < len; i++) {
+		(*env)->SetObjectArrayElement(env, array, start + i, buf[i]);
+		if ((*env)->ExceptionCheck(env)) {
+			thrown = (*env)->ExceptionOccurred(env);
+			(*env)->ExceptionClear(env);
+			return thrown;
+		}
+	}
+	return NULL;
+}
+
+/** Copies the len strings of array from start, one after another, into
+ * chars if they fit in capacity, and stores the length of each string
+ * in lengths, -1 for null. The range must be within the array. Returns
+ * the number of characters of all the strings, which have not been
+ * copied if that is more than capacity.
+ */
+jint
+GetStringArrayRegion(jobjectArray array, jsize start, jsize len,
+		     jint * lengths, jchar * chars, jint capacity)
+{
+	JNIEnv *env = GetEnv();
+	jstring string;
+	jint total = 0;
+	jsize i;
+
+	for (i = 0; i < len; i++) {
+		string = (*env)->GetObjectArrayElement(env, array, start + i);
+		if (string == NULL) {
+			lengths[i] = -1;
+			continue;
+		}
+		lengths[i] = (*env)->GetStringLength(env, string);
+		if (total + lengths[i] <= capacity)
+			(*env)->GetStringRegion(env, string, 0, lengths[i],
+						chars + total);
+		total += lengths[i];
+		(*env)->DeleteLocalRef(env, string);
+	}
+	return total;
+}
+
+/** Creates a java.lang.String[] of count strings, whose characters
+ * are one after another in chars and whose lengths are in lengths, -1
+ * for null. Returns a local reference, or NULL with an exception
+ * pending.
+ */
+jobjectArray
+NewStringArray(jsize count, jint * lengths, jchar * chars)
+{
+	static jclass stringClass;
+	JNIEnv *env = GetEnv();
+	jclass lclass;
+	jobjectArray array;
+	jstring string;
+	jsize i;
+
+	if (stringClass == NULL) {
+		lclass = (*env)->FindClass(env, "java/lang/String");
+		if (lclass == NULL)
+			return NULL;
+		stringClass = (*env)->NewGlobalRef(env, lclass);
+		(*env)->DeleteLocalRef(env, lclass);
+	}
+	array = (*env)->NewObjectArray(env, count, stringClass, NULL);
+	if (array == NULL)
+		return NULL;
+	for (i = 0; i < count; i++) {
+		if (lengths[i] < 0)
+			continue;
+		string = (*env)->NewString(env, chars, lengths[i]);
+		if (string == NULL) {
+			(*env)->DeleteLocalRef(env, array);
+			return NULL;
+		}
+		(*env)->SetObjectArrayElement(env, array, i, string);
+		(*env)->DeleteLocalRef(env, string);
+		chars += lengths[i];
+	}
+	return array;
+}
+
+/* chunked iteration, see Caffeine.Jni.JEnumerable */
+
+/* what NextElements() iterates */
+#define NEXT_ITERATOR 0
+#define NEXT_ENUMERATION 1
+#define NEXT_ENTRIES 2
+
+static jmethodID
+getInterfaceMethod(JNIEnv * env, const char *interface, const char *name,
+		   const char *sig)
+{
+	jclass clazz = (*env)->FindClass(env, interface);
+	jmethodID ret;
+
+	if (clazz == NULL)
+		return NULL;
+	ret = (*env)->GetMethodID(env, clazz, name, sig);
+	(*env)->DeleteLocalRef(env, clazz);
+	return ret;
+}
+
+/** Stores up to count elements of iterator into buf. iterator is a
+ * java.util.Iterator, an Enumeration with NEXT_ENUMERATION, or an
+ * iterator over the entries of a Map with NEXT_ENTRIES, in which case
+ * the key and value of each entry are stored instead of the entry, so
+ * buf must hold twice as many references. References are global, or local if local is set.
+ * Returns the number of elements stored, less than count once the
+ * iteration is over, or when an exception is thrown; the exception is
+ * then stored, cleared, as a local reference in *thrown.
+ */
+jint
+NextElements(jobject iterator, jint type, jobject * buf, jint count,
+	     jint local, jthrowable * thrown)
+{
+	JNIEnv *env = GetEnv();
+	jmethodID more, get, getKey = NULL, getValue = NULL;
+	jobject element, item;
+	jint stored = (type == NEXT_ENTRIES) ? 2 : 1;
+	jint n, i;
+
+	/* looked up once per chunk, which costs little next to it */
+	*thrown = NULL;
+	if (type == NEXT_ENUMERATION) {
+		more = getInterfaceMethod(env, "java/util/Enumeration",
+					  "hasMoreElements", "()Z");
+		get = getInterfaceMethod(env, "java/util/Enumeration",
+					 "nextElement", "()Ljava/lang/Object;");
+	} else {
+		more = getInterfaceMethod(env, "java/util/Iterator",
+					  "hasNext", "()Z");
+		get = getInterfaceMethod(env, "java/util/Iterator",
+					 "next", "()Ljava/lang/Object;");
+	}
+	if (type == NEXT_ENTRIES) {
+		getKey = getInterfaceMethod(env, "java/util/Map$Entry",
+					    "getKey", "()Ljava/lang/Object;");
+		getValue = getInterfaceMethod(env, "java/util/Map$Entry",
+					      "getValue", "()Ljava/lang/Object;");
+	}
+	if ((*env)->ExceptionCheck(env)) {
+		*thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+		return 0;
+	}
+	if (local && (*env)->EnsureLocalCapacity(env, count * stored) < 0) {
+		*thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+		return 0;
+	}
+
+	for (n = 0; n < count; n++) {
+		if (!(*env)->CallBooleanMethod(env, iterator, more))
+			break;
+		if ((*env)->ExceptionCheck(env))
+			break;
+		element = (*env)->CallObjectMethod(env, iterator, get);
+		if ((*env)->ExceptionCheck(env))
+			break;
+		if (type == NEXT_ENTRIES) {
+			buf[2 * n] = (*env)->CallObjectMethod(env, element,
+							      getKey);
+			if (!(*env)->ExceptionCheck(env))
+				buf[2 * n + 1] = (*env)->CallObjectMethod(env,
+						element, getValue);
+			(*env)->DeleteLocalRef(env, element);
+			if ((*env)->ExceptionCheck(env)) {
+				if (buf[2 * n] != NULL)
+					(*env)->DeleteLocalRef(env, buf[2 * n]);
+				break;
+			}
+		} else {
+			buf[n] = element;
+		}
+		if (!local) {
+			for (i = n * stored; i < (n + 1) * stored; i++) {
+				item = buf[i];
+				if (item != NULL) {
+					buf[i] = (*env)->NewGlobalRef(env, item);
+					(*env)->DeleteLocalRef(env, item);
+				}
+			}
+		}
+	}
+	if ((*env)->ExceptionCheck(env)) {
+		*thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+	}
+	return n;
+}
+
+/* stream pumps, see Caffeine.Jni.JInputStream */
+
+/** Reads up to len elements of source into dest through buf, a Java
+ * byte[], or a char[] if chars is set, of at least len elements. read
+ * is read(byte[], int, int) of a java.io.InputStream or read(char[],
+ * int, int) of a java.io.Reader. Returns the number of elements read,
+ * -1 at the end of the stream, or -2 if an exception was thrown; it is
+ * then stored, cleared, as a local reference in *thrown.
+ */
+jint
+PumpRead(jobject source, jmethodID read, jarray buf, jint chars,
+	 void *dest, jint len, jthrowable * thrown)
+{
+	JNIEnv *env = GetEnv();
+	jint n;
+
+	*thrown = NULL;
+	n = (*env)->CallIntMethod(env, source, read, buf, 0, len);
+	if ((*env)->ExceptionCheck(env)) {
+		*thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+		return -2;
+	}
+	if (n > 0) {
+		if (chars)
+			(*env)->GetCharArrayRegion(env, buf, 0, n, dest);
+		else
+			(*env)->GetByteArrayRegion(env, buf, 0, n, dest);
+	}
+	return n;
+}
+
+/** Writes the len elements of src to sink through buf, as PumpRead()
+ * reads them. write is write(byte[], int, int) of a
+ * java.io.OutputStream or write(char[], int, int) of a
+ * java.io.Writer. Returns the exception thrown, cleared, as a local
+ * reference, or NULL.
+ */
+jthrowable
+PumpWrite(jobject sink, jmethodID write, jarray buf, jint chars,
+	  const void *src, jint len)
+{
+	JNIEnv *env = GetEnv();
+	jthrowable thrown;
+
+	if (chars)
+		(*env)->SetCharArrayRegion(env, buf, 0, len, src);
+	else
+		(*env)->SetByteArrayRegion(env, buf, 0, len, src);
+	(*env)->CallVoidMethod(env, sink, write, buf, 0, len);
+	if ((*env)->ExceptionCheck(env)) {
+		thrown = (*env)->ExceptionOccurred(env);
+		(*env)->ExceptionClear(env);
+		return thrown;
+	}
+	return NULL;
+}
+
 /* all the functions below are 1:1 mappings */
 
 jclass
@@ -1331,3 +2063,26 @@ ExceptionCheck()
 	JNIEnv *env = GetEnv();
 	return (*env)->ExceptionCheck(env);
 }
+
+/* JNI 1.4 */
+
+jobject
+NewDirectByteBuffer(void *address, jlong capacity)
+{
+	JNIEnv *env = GetEnv();
+	return (*env)->NewDirectByteBuffer(env, address, capacity);
+}
+
+void *
+GetDirectBufferAddress(jobject buf)
+{
+	JNIEnv *env = GetEnv();
+	return (*env)->GetDirectBufferAddress(env, buf);
+}
+
+jlong
+GetDirectBufferCapacity(jobject buf)
+{
+	JNIEnv *env = GetEnv();
+	return (*env)->GetDirectBufferCapacity(env, buf);
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+
+	// The arguments of a call, built without boxing or allocating:
+	//
+	//	using (JArguments args = JArguments.Acquire ()) {
+	//		args.Put (x).Put (y).Put (name);
+	//		total += add.CallInt (calc, args);
+	//	}
+	//
+	// Acquire hands out an instance kept per thread, so a loop that
+	// acquires and disposes one each time allocates nothing once warm.
+	// An instance has a fixed capacity and is not thread-safe.
+	public sealed class JArguments : IDisposable
+	{
+		public const int DefaultCapacity = 16;
+
+		[ThreadStatic]
+		static JArguments pooled;
+
+		readonly JValue[] values;
+		// the JObjects passed, so that none is finalized, and its
+		// reference released, before the call
+		readonly JObject[] objects;
+		int count;
+
+		public JArguments () : this (DefaultCapacity)
+		{
+		}
+
+		public JArguments (int capacity)
+		{
+			if (capacity < 1) {
+				throw new ArgumentOutOfRangeException ("capacity");
+			}
+			values = new JValue [capacity];
+			objects = new JObject [capacity];
+		}
+
+		// an empty instance of DefaultCapacity, from the pool of the
+		// calling thread if it is not in use
+		public static JArguments Acquire ()
+		{
+			JArguments args = pooled;
+			if (args != null) {
+				pooled = null;
+				return args;
+			}
+			return new JArguments ();
+		}
+
+		// empties the instance and gives it back to the pool
+		public void Dispose ()
+		{
+			Clear ();
+			if (pooled == null && values.Length == DefaultCapacity) {
+				pooled = this;
+			}
+		}
+
+		public int Count {
+			get {
+				return count;
+			}
+		}
+
+		public int Capacity {
+			get {
+				return values.Length;
+			}
+		}
+
+		public void Clear ()
+		{
+			for (int i = 0; i < count; i++) {
+				objects[i] = null;
+			}
+			count = 0;
+		}
+
+		// the slot for the next argument
+		int Next ()
+		{
+			if (count == values.Length) {
+				throw new InvalidOperationException (
+					"more than " + values.Length + " arguments");
+			}
+			return count++;
+		}
+
+		public JArguments Put (bool value)
+		{
+			values[Next ()].JBool = value;
+			return this;
+		}
+
+		public JArguments Put (byte value)
+		{
+			values[Next ()].JByte = value;
+			return this;
+		}
+
+		public JArguments Put (sbyte value)
+		{
+			values[Next ()].JByte = (byte) value;
+			return this;
+		}
+
+		public JArguments Put (char value)
+		{
+			values[Next ()].JChar = value;
+			return this;
+		}
+
+		public JArguments Put (short value)
+		{
+			values[Next ()].JShort = value;
+			return this;
+		}
+
+		public JArguments Put (int value)
+		{
+			values[Next ()].JInt = value;
+			return this;
+		}
+
+		public JArguments Put (long value)
+		{
+			values[Next ()].JLong = value;
+			return this;
+		}
+
+		public JArguments Put (float value)
+		{
+			values[Next ()].JFloat = value;
+			return this;
+		}
+
+		public JArguments Put (double value)
+		{
+			values[Next ()].JDouble = value;
+			return this;
+		}
+
+		// null is passed as a null reference
+		public JArguments Put (JObject value)
+		{
+			int i = Next ();
+			values[i] = new JValue ();
+			values[i].JObject = value;
+			objects[i] = value;
+			return this;
+		}
+
+		// the whole array is passed: Java reads only as many values
+		// as the method takes
+		internal JValue[] Values {
+			get {
+				return values;
+			}
+		}
+	}
+}
@@ -28,6 +28,9 @@ namespace Caffeine.Jni
 	
 	public abstract class JArray : JObject
 	{
+		// the length of a Java array never changes
+		int length = -1;
+		
 		protected JArray (IntPtr raw) : base (raw)
 		{
 		}
@@ -41,16 +44,48 @@ namespace Caffeine.Jni
 
 		public int Length {
 			get {
-				return GetArrayLength (this.Handle);
+				if (length < 0) {
+					length = GetArrayLength (this.Handle);
+				}
+				return length;
 			}
 		}
 		
 		public abstract object Elements { get;}
-				
-		//[DllImport(JNIEnv.DLL_JAVA)]
-		//static extern object[] GetPrimitiveArrayCritical (IntPtr array, out bool copy);
 		
-		//[DllImport(JNIEnv.DLL_JAVA)]
-		//static extern void ReleasePrimitiveArrayCritical (IntPtr array, object[] carray, int mode);
+		// Checks offset and len against buf and start and len
+		// against this array.
+		protected void Check (int start, Array buf, int offset, int len)
+		{
+			if (buf == null) {
+				throw new ArgumentNullException ("buf");
+			}
+			if (len < 0 || offset < 0 || offset > buf.Length - len) {
+				throw new ArgumentOutOfRangeException ("offset");
+			}
+			if (start < 0 || start > Length - len) {
+				throw new ArgumentOutOfRangeException ("start");
+			}
+		}
+		
+		// Pins buf and returns the address of buf[offset], once
+		// the range is checked. The handle must be freed as soon as
+		// the native call returns.
+		protected GCHandle Pin (int start, Array buf, int offset, int len, out IntPtr address)
+		{
+			Check (start, buf, offset, len);
+			GCHandle pin = GCHandle.Alloc (buf, GCHandleType.Pinned);
+			address = Marshal.UnsafeAddrOfPinnedArrayElement (buf, offset);
+			return pin;
+		}
+		
+		// Gives direct access to the elements of the array for the
+		// scope of a using block, without copying them when the Java
+		// VM supports it. See JCritical for what may not be done
+		// while the block is running.
+		public JCritical Critical ()
+		{
+			return new JCritical (this);
+		}
 	}
 }
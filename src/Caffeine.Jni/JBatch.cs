@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Collections;
+	using System.Runtime.InteropServices;
+
+	// Records calls and makes them all in a single native call, for
+	// loops that would otherwise cross into Java once per element:
+	//
+	//	JBatch batch = new JBatch (proxies.Length);
+	//	foreach (JObject p in proxies) {
+	//		batch.Add (getX, p);
+	//	}
+	//	batch.Execute ();
+	//	for (int i = 0; i < batch.Count; i++) {
+	//		int x = batch.GetInt (i);
+	//	}
+	//
+	// Each call has its own slot for its result or the exception it
+	// threw; a failing call does not stop the ones after it. A batch
+	// may be cleared and reused, but not shared between threads.
+	public sealed class JBatch
+	{
+		// see InvokeBatch in jvm.c
+		[StructLayout (LayoutKind.Sequential)]
+		struct Call
+		{
+			internal IntPtr obj;
+			internal IntPtr methodID;
+			internal int type;
+			internal int args;
+		}
+
+		Call[] calls;
+		JValue[] args;
+		JValue[] results;
+		IntPtr[] thrown;
+		int count;
+		int nArgs;
+		bool executed;
+		// wrapped as soon as the batch has run, so that no global
+		// reference is left without an owner
+		JObject[] objects;
+		JNIException[] exceptions;
+		int failed;
+		// the methods, receivers and arguments of the calls: calls
+		// only hold their raw references, which the releaser would
+		// delete if the objects were collected before Execute
+		readonly ArrayList owners = new ArrayList ();
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern int InvokeBatch (Call[] calls, int count, JValue[] args, JValue[] results, IntPtr[] thrown);
+
+		public JBatch () : this (16)
+		{
+		}
+
+		public JBatch (int capacity)
+		{
+			if (capacity < 1) {
+				throw new ArgumentOutOfRangeException ("capacity");
+			}
+			calls = new Call [capacity];
+			args = new JValue [capacity];
+		}
+
+		// the number of calls recorded
+		public int Count {
+			get {
+				return count;
+			}
+		}
+
+		// the number of calls that threw, once executed
+		public int Failed {
+			get {
+				return failed;
+			}
+		}
+
+		public int Add (JMethod method, JObject obj)
+		{
+			return Add (method, obj, JValueInternal.EmptyArgs);
+		}
+
+		// records method.Call* (obj, args) and returns its slot,
+		// keeping the Java objects args are converted to alive until
+		// the batch runs
+		public int Add (JMethod method, JObject obj, params object[] args)
+		{
+			return Add (method, obj, JValue.Convert (args, owners));
+		}
+
+		// records method.Call* (obj, args) and returns its slot; the
+		// objects referenced by args must be kept alive by the caller
+		// until Execute
+		public int Add (JMethod method, JObject obj, JValue[] args)
+		{
+			if (executed) {
+				throw new InvalidOperationException (
+					"the batch has run, Clear it first");
+			}
+			if (count == calls.Length) {
+				Call[] c = new Call [count * 2];
+				Array.Copy (calls, c, count);
+				calls = c;
+			}
+			if (nArgs + args.Length > this.args.Length) {
+				JValue[] a = new JValue [Math.Max (
+					this.args.Length * 2, nArgs + args.Length)];
+				Array.Copy (this.args, a, nArgs);
+				this.args = a;
+			}
+
+			calls[count].obj = method.Target (obj);
+			owners.Add (method);
+			owners.Add (obj);
+			calls[count].methodID = method.Handle;
+			calls[count].type = method.InvokeType;
+			calls[count].args = nArgs;
+			Array.Copy (args, 0, this.args, nArgs, args.Length);
+			nArgs += args.Length;
+			return count++;
+		}
+
+		// makes every call recorded, in one native call
+		public void Execute ()
+		{
+			if (executed) {
+				throw new InvalidOperationException (
+					"the batch has run, Clear it first");
+			}
+			results = new JValue [count];
+			thrown = new IntPtr [count];
+			objects = new JObject [count];
+			exceptions = new JNIException [count];
+			executed = true;
+			if (count == 0) {
+				return;
+			}
+
+			failed = InvokeBatch (calls, count, args, results, thrown);
+			// the references must outlive the call
+			GC.KeepAlive (owners);
+			owners.Clear ();
+
+			for (int i = 0; i < count; i++) {
+				if (thrown[i] != IntPtr.Zero) {
+					exceptions[i] = JThrowable.Wrap (thrown[i]);
+				} else if (IsObject (calls[i].type) &&
+						results[i].Reference != IntPtr.Zero) {
+					objects[i] = new JObject (
+						results[i].Reference, JRefKind.Global);
+				}
+			}
+		}
+
+		static bool IsObject (int type)
+		{
+			return (type & 0xff) == 'L';
+		}
+
+		// forgets every call, to record new ones
+		public void Clear ()
+		{
+			owners.Clear ();
+			count = 0;
+			nArgs = 0;
+			failed = 0;
+			executed = false;
+			results = null;
+			thrown = null;
+			objects = null;
+			exceptions = null;
+		}
+
+		// the exception thrown by the call in slot, or null
+		public JNIException GetException (int slot)
+		{
+			Check (slot);
+			return exceptions[slot];
+		}
+
+		// throws the exception of the first call that failed
+		public void CheckAndThrow ()
+		{
+			if (failed == 0) {
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				if (exceptions[i] != null) {
+					throw exceptions[i];
+				}
+			}
+		}
+
+		JValue Result (int slot)
+		{
+			Check (slot);
+			if (exceptions[slot] != null) {
+				throw exceptions[slot];
+			}
+			return results[slot];
+		}
+
+		void Check (int slot)
+		{
+			if (!executed) {
+				throw new InvalidOperationException (
+					"the batch has not run");
+			}
+			if (slot < 0 || slot >= count) {
+				throw new ArgumentOutOfRangeException ("slot");
+			}
+		}
+
+		public bool GetBoolean (int slot)
+		{
+			return Result (slot).JBool;
+		}
+
+		public sbyte GetByte (int slot)
+		{
+			return (sbyte) Result (slot).JByte;
+		}
+
+		public char GetChar (int slot)
+		{
+			return Result (slot).JChar;
+		}
+
+		public short GetShort (int slot)
+		{
+			return Result (slot).JShort;
+		}
+
+		public int GetInt (int slot)
+		{
+			return Result (slot).JInt;
+		}
+
+		public long GetLong (int slot)
+		{
+			return Result (slot).JLong;
+		}
+
+		public float GetFloat (int slot)
+		{
+			return Result (slot).JFloat;
+		}
+
+		public double GetDouble (int slot)
+		{
+			return Result (slot).JDouble;
+		}
+
+		// null if the method returned null
+		public JObject GetObject (int slot)
+		{
+			Result (slot);
+			return objects[slot];
+		}
+
+		// The strings returned by n calls, in slots first, first +
+		// stride and so on, eg. one getter of many objects: they are
+		// copied out in a few native calls rather than one per string.
+		// Nulls stay null.
+		public string[] GetStrings (int first, int stride, int n)
+		{
+			if (stride < 1 || n < 0) {
+				throw new ArgumentOutOfRangeException ();
+			}
+			string[] ret = new string [n];
+			JObject[] strings = new JObject [n];
+			for (int i = 0; i < n; i++) {
+				strings[i] = GetObject (first + i * stride);
+			}
+			if (n == 1) {
+				ret[0] = JString.GetString (strings[0]);
+			} else if (n > 1) {
+				JObjectArray array = new JObjectArray (strings,
+					JClass.ForName ("java/lang/String"));
+				array.GetStrings (0, ret, 0, n);
+				array.Dispose ();
+			}
+			return ret;
+		}
+	}
+}
@@ -43,7 +43,7 @@ namespace Caffeine.Jni
 		
 		public JBooleanArray (bool[] buf) : this (buf.Length)
 		{
-			SetBooleanArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 			
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
@@ -52,10 +52,7 @@ namespace Caffeine.Jni
 		public override object Elements {
 			get {
 				bool[] c = new bool[Length];
-				GetBooleanArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
-				
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -66,10 +63,32 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseBooleanArrayElements (IntPtr array, bool[] elems, int mode);
 
+		public void GetRegion (int start, bool[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetBooleanArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, bool[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetBooleanArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetBooleanArrayRegion (IntPtr array, int start, int l, bool[] buf);
+		static extern void GetBooleanArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetBooleanArrayRegion (IntPtr array, int start, int l, bool[] buf);
+		static extern void SetBooleanArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
@@ -43,7 +43,7 @@ namespace Caffeine.Jni
 		
 		public JByteArray (byte[] buf) : this(buf.Length)
 		{
-			SetByteArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
@@ -52,10 +52,7 @@ namespace Caffeine.Jni
 		public override object Elements {
 			get {
 				byte[] c = new byte[Length];
-				GetByteArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();				
-				
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -66,10 +63,32 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseByteArrayElements (IntPtr array, byte[] elems, int mode);
 
+		public void GetRegion (int start, byte[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetByteArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, byte[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetByteArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetByteArrayRegion (IntPtr array, int start, int len, byte[] buf);
+		static extern void GetByteArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetByteArrayRegion (IntPtr array, int start, int len, byte[] buf);
+		static extern void SetByteArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
@@ -41,31 +41,48 @@ namespace Caffeine.Jni
 			JThrowable.CheckAndThrow ();
 		}
 		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetCharArrayRegion (IntPtr array, int start, int len, char[] buf);
-		
 		public JCharArray (char[] buf) : this(buf.Length)
 		{
-			SetCharArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 		
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
 		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetCharArrayRegion (IntPtr array, int start, int len, ushort[] buf);
-		
 		public override object Elements {
 			get {
-				ushort[] c = new ushort[Length];
-				GetCharArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError
-				JThrowable.CheckAndThrow ();
-				char[] r = new char[Length];
-				for (int i = 0; i < Length; i++)
-					r[i] = (char) c[i];
-				return r;
+				char[] c = new char[Length];
+				GetRegion (0, c, 0, c.Length);
+				return c;
 			}
-		}		
+		}
+
+		public void GetRegion (int start, char[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetCharArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, char[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetCharArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void GetCharArrayRegion (IntPtr array, int start, int len, IntPtr buf);
+		
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void SetCharArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
@@ -24,24 +24,122 @@
 namespace Caffeine.Jni
 {
 	using System;
+	using System.Collections;
 	using System.Runtime.InteropServices;
 	
+	// Classes returned by ForName, and the methods, fields and
+	// constructors looked up on them, are cached process-wide: each
+	// one is resolved once and the same instance is handed out
+	// afterwards. Both caches are Hashtables, which are safe for any
+	// number of readers with a single writer, so only insertions lock.
+	// A cache that grows over CacheCapacity entries is emptied.
 	public sealed class JClass : JObject
 	{
 		readonly static JavaVM vm = new JavaVM ();
 		
+		static readonly Hashtable classes = new Hashtable ();
+		static int capacity = 1024;
+		
+		// "kind name sig" -> JMethod, JField or JConstructor
+		readonly Hashtable members = new Hashtable ();
+		JConstructor defaultConstructor;
+		// known for the classes returned by ForName
+		string name;
+		
 		internal JClass (IntPtr raw) : base (raw)
 		{
 		}
 		
+		JClass (IntPtr raw, JRefKind kind) : base (raw, kind)
+		{
+		}
+		
+		// the maximum number of classes cached, and of members
+		// cached for each class
+		public static int CacheCapacity {
+			get {
+				return capacity;
+			}
+			set {
+				if (value < 1) {
+					throw new ArgumentOutOfRangeException ("value");
+				}
+				capacity = value;
+			}
+		}
+		
+		// drops every cached class and member; called before the
+		// JavaVM is destroyed since no ID or reference outlives it
+		public static void ClearCache ()
+		{
+			lock (classes) {
+				foreach (JClass c in classes.Values) {
+					c.ClearMembers ();
+					c.Unpin ();
+				}
+				classes.Clear ();
+			}
+		}
+		
+		void ClearMembers ()
+		{
+			lock (members) {
+				members.Clear ();
+				defaultConstructor = null;
+			}
+		}
+		
+		// adds value unless another thread got there first, and
+		// returns whichever ends up cached
+		static object Cache (Hashtable table, object key, object value)
+		{
+			lock (table) {
+				object cached = table[key];
+				if (cached != null) {
+					return cached;
+				}
+				if (table.Count >= capacity) {
+					table.Clear ();
+				}
+				table[key] = value;
+			}
+			return value;
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr FindClass (string name);
 		
 		public static JClass ForName (string name)
 		{
+			JClass ret = (JClass) classes[name];
+			if (ret != null) {
+				return ret;
+			}
+			
 			IntPtr raw = FindClass (name);
 			if (raw != IntPtr.Zero) {
-				return new JClass (raw);
+				// cached, so global even inside a JNIFrame
+				ret = new JClass (JReferences.Promote (raw),
+					JRefKind.Global);
+				ret.name = name;
+				lock (classes) {
+					JClass cached = (JClass) classes[name];
+					if (cached != null) {
+						// released when ret is collected
+						return cached;
+					}
+					if (classes.Count >= capacity) {
+						foreach (JClass c in classes.Values) {
+							c.Unpin ();
+						}
+						classes.Clear ();
+					}
+					// shared by every caller, so Dispose must not
+					// release it
+					ret.Pin ();
+					classes[name] = ret;
+				}
+				return ret;
 			}
 			
 			// raw is 0 if and only if an exception occurred
@@ -55,6 +153,13 @@ namespace Caffeine.Jni
 			throw new TypeLoadException (name);
 		}
 		
+		// the name given to ForName, eg. "java/lang/String"
+		internal string ClassName {
+			get {
+				return name != null ? name : "?";
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr GetSuperclass (IntPtr sub);
 		
@@ -77,9 +182,15 @@ namespace Caffeine.Jni
 			if (name.Equals ("<init>") || name.Equals ("clinit")) {
 				throw new MissingMethodException (name);
 			}
+			string key = "static " + name + sig;
+			JMethod ret = (JMethod) members[key];
+			if (ret != null) {
+				return ret;
+			}
 			IntPtr raw = GetStaticMethodID (this.Handle, name, sig);
 			if (raw != IntPtr.Zero) {
-				return new JMethod (this, name, sig, true, raw);
+				ret = new JMethod (this, name, sig, true, raw);
+				return (JMethod) Cache (members, key, ret);
 			} else {
 				// raw is 0 if and only if an exception occurred
 				JThrowable.Clear ();
@@ -95,9 +206,15 @@ namespace Caffeine.Jni
 			if (name.Equals ("<init>") || name.Equals ("clinit")) {
 				throw new MissingMethodException (name);
 			}
+			string key = name + sig;
+			JMethod ret = (JMethod) members[key];
+			if (ret != null) {
+				return ret;
+			}
 			IntPtr raw = GetMethodID (this.Handle, name, sig);
 			if (raw != IntPtr.Zero) {
-				return new JMethod (this, name, sig, false, raw);
+				ret = new JMethod (this, name, sig, false, raw);
+				return (JMethod) Cache (members, key, ret);
 			} else {
 				// raw is 0 if and only if an exception occurred
 				JThrowable.Clear ();
@@ -107,9 +224,15 @@ namespace Caffeine.Jni
 		
 		public JConstructor GetConstructor (string sig)
 		{
+			string key = "<init>" + sig;
+			JConstructor ret = (JConstructor) members[key];
+			if (ret != null) {
+				return ret;
+			}
 			IntPtr raw = GetMethodID (this.Handle, "<init>", sig);
 			if (raw != IntPtr.Zero) {
-				return new JConstructor (this, raw);
+				ret = new JConstructor (this, sig, raw);
+				return (JConstructor) Cache (members, key, ret);
 			} else {
 				// raw is 0 if and only if an exception occurred
 				JThrowable.Clear ();
@@ -127,9 +250,17 @@ namespace Caffeine.Jni
 		
 		public JField GetStaticField (string name, string sig)
 		{
+			// a field signature has no parentheses, so the keys
+			// never clash with those of methods
+			string key = "static " + name + " " + sig;
+			JField ret = (JField) members[key];
+			if (ret != null) {
+				return ret;
+			}
 			IntPtr raw = GetStaticFieldID (this.Handle, name, sig);
 			if (raw != IntPtr.Zero) {
-				return new JField (this, name, sig, true, raw);
+				ret = new JField (this, name, sig, true, raw);
+				return (JField) Cache (members, key, ret);
 			} else {
 				// raw is 0 if and only if an exception occurred
 				JThrowable.Clear ();
@@ -142,9 +273,15 @@ namespace Caffeine.Jni
 		
 		public JField GetField (string name, string sig)
 		{
+			string key = name + " " + sig;
+			JField ret = (JField) members[key];
+			if (ret != null) {
+				return ret;
+			}
 			IntPtr raw = GetFieldID (this.Handle, name, sig);
 			if (raw != IntPtr.Zero) {
-				return new JField (this, name, sig, false, raw);
+				ret = new JField (this, name, sig, false, raw);
+				return (JField) Cache (members, key, ret);
 			} else {
 				// raw is 0 if and only if an exception occurred
 				JThrowable.Clear ();
@@ -155,23 +292,15 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr AllocObject (IntPtr clazz);
 				
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr NewObject (IntPtr clazz, IntPtr methodID, JValue[] args);
-		
 		public JObject NewInstance ()
 		{
-			IntPtr ctr = GetMethodID (this.Handle, "<init>", "()V");
-			if (ctr == IntPtr.Zero) {
-				// ctr is 0 if and only if an exception occurred
-				JThrowable.Clear ();
-				throw new MissingMethodException ("<init>");
-			}
-			IntPtr raw = NewObject (this.Handle, ctr, JValue.Convert ()); 
-			if (raw == IntPtr.Zero) {
-				// raw is 0 if and only if an exception occurred
- 				JThrowable.CheckAndThrow ();
+			JConstructor ctr = defaultConstructor;
+			if (ctr == null) {
+				ctr = GetConstructor ();
+				defaultConstructor = ctr;
 			}
-			return new JObject (raw);
+			return new JObject (ctr.NewObject (JValueInternal.EmptyArgs),
+				JNIFrame.ResultKind);
 		}
 
 		[DllImport(JNIEnv.DLL_JAVA)]
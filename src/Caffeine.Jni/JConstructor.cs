@@ -30,12 +30,17 @@ namespace Caffeine.Jni
 	{
 		JClass declaringClass;
 		static string name = "<init>";
+		string sig;
+		// see JInstrumentation
+		JCallStats stats;
 		
 		internal JConstructor (JClass declaringClass, 
+			string sig,
 			IntPtr methodID) 
-			: base (methodID)
+			: base (methodID, JRefKind.None)
 		{
 			this.declaringClass = declaringClass;
+			this.sig = sig;
 		}		
 
 		public JClass DeclaringClass { 
@@ -49,5 +54,39 @@ namespace Caffeine.Jni
 				return name;
 			}			
 		}
+		
+		// see Invoke in jvm.c
+		const int INVOKE_NEW = 0x200;
+		
+		[DllImport(JNIEnv.DLL_JAVA, EntryPoint="Invoke")]
+		static extern IntPtr NewChecked (IntPtr clazz, IntPtr methodID, int type, JValue[] args, out JValue result);
+		
+		// creates an object in a single native call, which also
+		// checks for an exception; returns a reference of
+		// JNIFrame.ResultKind
+		internal IntPtr NewObject (JValue[] args)
+		{
+			JValue r;
+			long start = JInstrumentation.Start ();
+			IntPtr thrown = NewChecked (
+				declaringClass.Handle,
+				Handle,
+				INVOKE_NEW | JNIFrame.InvokeFlags,
+				args,
+				out r);
+			if (start != 0) {
+				JInstrumentation.Stop (this, sig, ref stats, start,
+					thrown != IntPtr.Zero);
+			}
+			if (thrown != IntPtr.Zero) {
+				JThrowable.Raise (thrown);
+			}
+			return r.Reference;
+		}
+		
+		public JObject NewInstance (JArguments args)
+		{
+			return new JObject (NewObject (args.Values), JNIFrame.ResultKind);
+		}
 	}
 }
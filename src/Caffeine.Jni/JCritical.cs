@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Runtime.InteropServices;
+
+	// The elements of a primitive Java array, pinned in place by the
+	// Java VM for as long as this object is not disposed:
+	//
+	//	using (JCritical c = samples.Critical ()) {
+	//		Marshal.Copy (c.Address, buf, 0, c.Length);
+	//	}
+	//
+	// Between Critical () and Dispose the thread must not call into
+	// Java, block, or wait on another thread that does: the Java VM
+	// may hold off garbage collection until the array is released.
+	// It must be disposed on the thread that created it, which is why
+	// there is no finalizer.
+	public sealed class JCritical : IDisposable
+	{
+		// Release modes, see ReleasePrimitiveArrayCritical
+		const int COMMIT = 0;
+		const int ABORT = 2;
+
+		readonly JArray array;
+		readonly int length;
+		readonly bool isCopy;
+		IntPtr address;
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr GetPrimitiveArrayCritical (IntPtr array, out byte isCopy);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void ReleasePrimitiveArrayCritical (IntPtr array, IntPtr carray, int mode);
+
+		internal JCritical (JArray array)
+		{
+			this.array = array;
+			// no JNI calls once in the critical section
+			this.length = array.Length;
+			byte copy;
+			address = GetPrimitiveArrayCritical (array.Handle, out copy);
+			if (address == IntPtr.Zero) {
+				JThrowable.Clear ();
+				throw new OutOfMemoryException ();
+			}
+			isCopy = copy != 0;
+		}
+
+		// the address of the first element
+		public IntPtr Address {
+			get {
+				if (address == IntPtr.Zero) {
+					throw new ObjectDisposedException ("JCritical");
+				}
+				return address;
+			}
+		}
+
+		// the number of elements
+		public int Length {
+			get {
+				return length;
+			}
+		}
+
+		// true if the Java VM handed out a copy, in which case
+		// changes reach the Java array on Dispose
+		public bool IsCopy {
+			get {
+				return isCopy;
+			}
+		}
+
+		// leaves the critical section, writing changes back
+		public void Dispose ()
+		{
+			Release (COMMIT);
+		}
+
+		// leaves the critical section, discarding the changes made to
+		// a copy
+		public void Abort ()
+		{
+			Release (ABORT);
+		}
+
+		void Release (int mode)
+		{
+			if (address != IntPtr.Zero) {
+				ReleasePrimitiveArrayCritical (array.Handle, address, mode);
+				address = IntPtr.Zero;
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Collections;
+	using System.Runtime.InteropServices;
+
+	// A java.nio.ByteBuffer whose contents live outside both heaps, so
+	// bytes cross between .NET and Java without being copied.
+	//
+	// A buffer is either created here, over unmanaged memory or a
+	// pinned byte[], or taken from Java, eg. the result of
+	// ByteBuffer.allocateDirect. Memory allocated or pinned here is
+	// not reclaimed when the JDirectBuffer is disposed, since Java may
+	// still be using the ByteBuffer, but once the ByteBuffer has been
+	// collected by Java as well. The reference releaser thread checks
+	// for that, see Reclaim.
+	public class JDirectBuffer : JObject
+	{
+		// memory to give back once its ByteBuffer is gone
+		sealed class Owned
+		{
+			internal readonly IntPtr weak;
+			internal readonly IntPtr memory;
+			internal readonly GCHandle pin;
+
+			internal Owned (IntPtr weak, IntPtr memory, GCHandle pin)
+			{
+				this.weak = weak;
+				this.memory = memory;
+				this.pin = pin;
+			}
+		}
+
+		static readonly ArrayList owned = new ArrayList ();
+
+		readonly IntPtr address;
+		readonly long capacity;
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr NewDirectByteBuffer (IntPtr address, long capacity);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr GetDirectBufferAddress (IntPtr buf);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern long GetDirectBufferCapacity (IntPtr buf);
+
+		// capacity bytes of new unmanaged memory
+		public JDirectBuffer (int capacity)
+			: this (Marshal.AllocHGlobal (capacity), capacity, true)
+		{
+		}
+
+		// memory owned by the caller, which must outlive every use
+		// of the buffer by Java
+		public JDirectBuffer (IntPtr address, long capacity)
+			: this (address, capacity, IntPtr.Zero, new GCHandle ())
+		{
+		}
+
+		// the bytes of buf, which stays pinned until both sides are
+		// done with the buffer
+		public JDirectBuffer (byte[] buf)
+			: this (GCHandle.Alloc (buf, GCHandleType.Pinned), buf.Length)
+		{
+		}
+
+		// a direct ByteBuffer created by Java; its memory is valid
+		// until this object is disposed
+		public JDirectBuffer (JObject buffer) : base (buffer)
+		{
+			address = GetDirectBufferAddress (Handle);
+			if (address == IntPtr.Zero) {
+				throw new ArgumentException (
+					"not a direct java.nio.Buffer", "buffer");
+			}
+			capacity = GetDirectBufferCapacity (Handle);
+		}
+
+		// memory was allocated here; allocated only tells this
+		// constructor apart from the public one
+		JDirectBuffer (IntPtr memory, long capacity, bool allocated)
+			: this (memory, capacity, memory, new GCHandle ())
+		{
+		}
+
+		JDirectBuffer (GCHandle pin, long capacity)
+			: this (pin.AddrOfPinnedObject (), capacity, IntPtr.Zero, pin)
+		{
+		}
+
+		// memory and pin are released once Java is done as well
+		JDirectBuffer (IntPtr address, long capacity, IntPtr memory, GCHandle pin)
+			: base (Wrap (address, capacity, memory, pin))
+		{
+			this.address = address;
+			this.capacity = capacity;
+			if (memory != IntPtr.Zero || pin.IsAllocated) {
+				Owned o = new Owned (NewWeakGlobalRef (Handle), memory, pin);
+				lock (owned) {
+					owned.Add (o);
+				}
+			}
+		}
+
+		static IntPtr Wrap (IntPtr address, long capacity, IntPtr memory, GCHandle pin)
+		{
+			IntPtr raw = NewDirectByteBuffer (address, capacity);
+			if (raw == IntPtr.Zero) {
+				if (memory != IntPtr.Zero) {
+					Marshal.FreeHGlobal (memory);
+				}
+				if (pin.IsAllocated) {
+					pin.Free ();
+				}
+				JThrowable.CheckAndThrow ();
+				// the Java VM does not support JNI 1.4
+				throw new NotSupportedException ("NewDirectByteBuffer");
+			}
+			return raw;
+		}
+
+		// the address of the first byte
+		public IntPtr Address {
+			get {
+				return address;
+			}
+		}
+
+		public long Capacity {
+			get {
+				return capacity;
+			}
+		}
+
+		public void Read (long position, byte[] buf, int offset, int len)
+		{
+			Check (position, len);
+			Marshal.Copy (new IntPtr (address.ToInt64 () + position),
+				buf, offset, len);
+		}
+
+		public void Write (long position, byte[] buf, int offset, int len)
+		{
+			Check (position, len);
+			Marshal.Copy (buf, offset,
+				new IntPtr (address.ToInt64 () + position), len);
+		}
+
+		void Check (long position, int len)
+		{
+			if (position < 0 || len < 0 || position > capacity - len) {
+				throw new ArgumentOutOfRangeException ("position");
+			}
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr NewWeakGlobalRef (IntPtr obj);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void DeleteWeakGlobalRef (IntPtr weak);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern byte IsSameObject (IntPtr obj1, IntPtr obj2);
+
+		// Frees the memory of every buffer created here that Java has
+		// collected. Each buffer costs a native call, so this runs on
+		// the reference releaser thread, every JReferences.FlushInterval
+		// milliseconds.
+		internal static void Reclaim ()
+		{
+			Owned[] all;
+			lock (owned) {
+				if (owned.Count == 0) {
+					return;
+				}
+				all = (Owned[]) owned.ToArray (typeof (Owned));
+			}
+			foreach (Owned o in all) {
+				// a cleared weak reference is the same as null
+				if (IsSameObject (o.weak, IntPtr.Zero) == 0) {
+					continue;
+				}
+				DeleteWeakGlobalRef (o.weak);
+				if (o.memory != IntPtr.Zero) {
+					Marshal.FreeHGlobal (o.memory);
+				}
+				if (o.pin.IsAllocated) {
+					o.pin.Free ();
+				}
+				lock (owned) {
+					owned.Remove (o);
+				}
+			}
+		}
+	}
+}
@@ -43,7 +43,7 @@ namespace Caffeine.Jni
 		
 		public JDoubleArray (double[] buf) : this(buf.Length)
 		{
-			SetDoubleArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
 		}
@@ -51,9 +51,7 @@ namespace Caffeine.Jni
 		public override object Elements {
 			get {
 				double[] c = new double[Length];
-				GetDoubleArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -61,13 +59,35 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseDoubleArrayElements (IntPtr array, double[] elems, int mode);
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetDoubleArrayRegion (IntPtr array, int start, int len, double[] buf);
-
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern double[] GetDoubleArrayElements (IntPtr array, out bool isCopy);
 
+		public void GetRegion (int start, double[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetDoubleArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, double[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetDoubleArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void GetDoubleArrayRegion (IntPtr array, int start, int len, IntPtr buf);
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetDoubleArrayRegion (IntPtr array, int start, int len, double[] buf);
+		static extern void SetDoubleArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
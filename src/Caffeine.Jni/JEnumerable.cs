@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Collections;
+	using System.Runtime.InteropServices;
+
+	// Enumerates a java.util.Iterator, Enumeration, Collection or the
+	// entries of a Map, eg.
+	//
+	//	foreach (JObject item in JEnumerable.Collection (list)) {
+	//		...
+	//	}
+	//	foreach (DictionaryEntry e in JEnumerable.EntrySet (map)) {
+	//		...
+	//	}
+	//
+	// Elements are fetched in chunks, each in a single native call,
+	// instead of calling hasNext and next across JNI for every one.
+	// The first chunk is small and they double up to ChunkSize, so
+	// that a loop that stops early does not fetch much more than it
+	// uses. Elements are JObjects, and map entries DictionaryEntries
+	// of JObjects; nulls stay null.
+	public sealed class JEnumerable : IEnumerable
+	{
+		public const int DefaultChunkSize = 256;
+		const int FirstChunkSize = 16;
+
+		// see NextElements in jvm.c
+		const int NEXT_ITERATOR = 0;
+		const int NEXT_ENUMERATION = 1;
+		const int NEXT_ENTRIES = 2;
+
+		static JMethod iterator;
+		static JMethod entrySet;
+
+		readonly JObject source;
+		// source is an Iterable, not an iterator
+		readonly bool iterable;
+		readonly int type;
+		readonly int chunkSize;
+
+		JEnumerable (JObject source, bool iterable, int type, int chunkSize)
+		{
+			if (source == null) {
+				throw new ArgumentNullException ("source");
+			}
+			if (chunkSize <= 0) {
+				throw new ArgumentOutOfRangeException ("chunkSize");
+			}
+			this.source = source;
+			this.iterable = iterable;
+			this.type = type;
+			this.chunkSize = chunkSize;
+		}
+
+		// the remaining elements of a java.util.Iterator, which can
+		// be enumerated only once
+		public static JEnumerable Iterator (JObject iterator)
+		{
+			return Iterator (iterator, DefaultChunkSize);
+		}
+
+		public static JEnumerable Iterator (JObject iterator, int chunkSize)
+		{
+			return new JEnumerable (iterator, false, NEXT_ITERATOR,
+				chunkSize);
+		}
+
+		// the remaining elements of a java.util.Enumeration, which can
+		// be enumerated only once
+		public static JEnumerable Enumeration (JObject enumeration)
+		{
+			return Enumeration (enumeration, DefaultChunkSize);
+		}
+
+		public static JEnumerable Enumeration (JObject enumeration,
+			int chunkSize)
+		{
+			return new JEnumerable (enumeration, false,
+				NEXT_ENUMERATION, chunkSize);
+		}
+
+		// the elements of a java.util.Collection, or any other
+		// java.lang.Iterable, with a new iterator every time
+		public static JEnumerable Collection (JObject collection)
+		{
+			return Collection (collection, DefaultChunkSize);
+		}
+
+		public static JEnumerable Collection (JObject collection,
+			int chunkSize)
+		{
+			return new JEnumerable (collection, true, NEXT_ITERATOR,
+				chunkSize);
+		}
+
+		// the entries of a java.util.Map, as DictionaryEntries of
+		// their keys and values
+		public static JEnumerable EntrySet (JObject map)
+		{
+			return EntrySet (map, DefaultChunkSize);
+		}
+
+		public static JEnumerable EntrySet (JObject map, int chunkSize)
+		{
+			if (map == null) {
+				throw new ArgumentNullException ("map");
+			}
+			if (entrySet == null) {
+				entrySet = JClass.ForName ("java/util/Map").GetMethod (
+					"entrySet", "()Ljava/util/Set;");
+			}
+			return new JEnumerable (entrySet.CallObject (map), true,
+				NEXT_ENTRIES, chunkSize);
+		}
+
+		public IEnumerator GetEnumerator ()
+		{
+			JObject it = source;
+			if (iterable) {
+				if (iterator == null) {
+					iterator = JClass.ForName ("java/lang/Iterable").GetMethod (
+						"iterator", "()Ljava/util/Iterator;");
+				}
+				it = iterator.CallObject (source);
+			}
+			return new Enumerator (it, type, chunkSize);
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern int NextElements (IntPtr iterator, int type, IntPtr[] buf, int count, int local, out IntPtr thrown);
+
+		sealed class Enumerator : IEnumerator
+		{
+			readonly JObject iterator;
+			readonly int type;
+			readonly int chunkSize;
+			object[] chunk;
+			IntPtr[] refs;
+			int count;
+			int next;
+			bool done;
+			// thrown by Java after the elements in chunk
+			IntPtr thrown;
+			object current;
+
+			internal Enumerator (JObject iterator, int type, int chunkSize)
+			{
+				this.iterator = iterator;
+				this.type = type;
+				this.chunkSize = chunkSize;
+				this.chunk = new object [Math.Min (FirstChunkSize, chunkSize)];
+			}
+
+			public object Current {
+				get {
+					if (next == 0) {
+						throw new InvalidOperationException ();
+					}
+					return current;
+				}
+			}
+
+			public bool MoveNext ()
+			{
+				if (next == count) {
+					if (thrown != IntPtr.Zero) {
+						IntPtr raw = thrown;
+						thrown = IntPtr.Zero;
+						done = true;
+						JThrowable.Raise (raw);
+					}
+					if (done) {
+						return false;
+					}
+					Fetch ();
+					if (count == 0) {
+						return MoveNext ();
+					}
+				}
+				current = chunk[next];
+				chunk[next++] = null;
+				return true;
+			}
+
+			void Fetch ()
+			{
+				if (count == chunk.Length && chunk.Length < chunkSize) {
+					chunk = new object [Math.Min (chunk.Length * 2, chunkSize)];
+				}
+				int stored = type == NEXT_ENTRIES ? 2 : 1;
+				if (refs == null || refs.Length < chunk.Length * stored) {
+					refs = new IntPtr [chunk.Length * stored];
+				}
+				JRefKind kind = JNIFrame.ResultKind;
+				count = NextElements (iterator.Handle, type, refs,
+					chunk.Length, kind == JRefKind.Local ? 1 : 0,
+					out thrown);
+				next = 0;
+				done = count < chunk.Length;
+				for (int i = 0; i < count; i++) {
+					if (stored == 2) {
+						chunk[i] = new DictionaryEntry (
+							Wrap (refs[2 * i], kind),
+							Wrap (refs[2 * i + 1], kind));
+					} else {
+						chunk[i] = Wrap (refs[i], kind);
+					}
+				}
+			}
+
+			static JObject Wrap (IntPtr raw, JRefKind kind)
+			{
+				return raw != IntPtr.Zero ? new JObject (raw, kind) : null;
+			}
+
+			// Java iterators cannot go back
+			public void Reset ()
+			{
+				throw new NotSupportedException ();
+			}
+		}
+	}
+}
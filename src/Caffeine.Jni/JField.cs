@@ -26,21 +26,28 @@ namespace Caffeine.Jni
 	using System;
 	using System.Runtime.InteropServices;
 	
+	// Getting or setting a field runs no Java code, so it cannot throw
+	// and, unlike a call through JMethod, needs no exception check:
+	// each access is a single native call.
 	public class JField : JObject, IMember
 	{
 		JClass declaringClass;
 		string name;
+		string sig;
 		bool isStatic;
+		// see JInstrumentation
+		JCallStats stats;
 		
 		internal JField (JClass declaringClass, 
 			string name,
 			string sig,
 			bool isStatic,			
 			IntPtr methodID) 
-			: base (methodID)
+			: base (methodID, JRefKind.None)
 		{
 			this.declaringClass = declaringClass;
 			this.name = name;
+			this.sig = sig;
 			this.isStatic = isStatic;
 		}		
 
@@ -55,6 +62,13 @@ namespace Caffeine.Jni
 				return name;
 			}			
 		}
+		
+		void Done (long start)
+		{
+			if (start != 0) {
+				JInstrumentation.Stop (this, sig, ref stats, start, false);
+			}
+		}
 
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr GetStaticObjectField (IntPtr clazz, IntPtr fieldID);		
@@ -63,6 +77,7 @@ namespace Caffeine.Jni
 		
 		public JObject GetObject (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			IntPtr raw;
 			
 			if (isStatic) {
@@ -77,6 +92,11 @@ namespace Caffeine.Jni
 				}
 			}
 			
+			Done (start);
+			// null fields are common, unlike failed calls
+			if (raw == IntPtr.Zero) {
+				return null;
+			}
 			return new JObject (raw);
 		}
 		
@@ -86,13 +106,16 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void SetObjectField (IntPtr obj, IntPtr fieldID, IntPtr val);
 		
+		// value may be null
 		public void SetObject (JObject obj, JObject value)
 		{
+			long start = JInstrumentation.Start ();
+			IntPtr raw = value != null ? value.Handle : IntPtr.Zero;
 			if (isStatic) {
 				SetStaticObjectField (
 					DeclaringClass.Handle,
 					Handle,
-					value.Handle);
+					raw);
 			} else {
 				if (obj == null) {
 					throw new NullReferenceException (Name);
@@ -100,11 +123,10 @@ namespace Caffeine.Jni
 					SetObjectField (
 						obj.Handle,
 						Handle,
-						value.Handle);
+						raw);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -114,6 +136,7 @@ namespace Caffeine.Jni
 		
 		public bool GetBool (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			bool r;
 			
 			if (isStatic) {
@@ -128,8 +151,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 		
@@ -140,6 +162,7 @@ namespace Caffeine.Jni
 		
 		public void SetBool (JObject obj, bool value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticBooleanField (
 					DeclaringClass.Handle,
@@ -155,8 +178,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 			
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -166,6 +188,7 @@ namespace Caffeine.Jni
 		
 		public byte GetByte (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			byte r;
 			
 			if (isStatic) {
@@ -180,8 +203,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 		
@@ -192,6 +214,7 @@ namespace Caffeine.Jni
 
 		public void SetByte (JObject obj, byte value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticByteField (
 					DeclaringClass.Handle,
@@ -207,8 +230,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -218,6 +240,7 @@ namespace Caffeine.Jni
 		
 		public char GetChar (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			ushort r;
 			
 			if (isStatic) {
@@ -232,8 +255,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return (char) r;
 		}
 		
@@ -244,6 +266,7 @@ namespace Caffeine.Jni
 		
 		public void SetChar (JObject obj, char value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticCharField (
 					DeclaringClass.Handle,
@@ -259,8 +282,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -270,6 +292,7 @@ namespace Caffeine.Jni
 
 		public short GetShort (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			short r;
 			
 			if (isStatic) {
@@ -284,8 +307,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 		
@@ -296,6 +318,7 @@ namespace Caffeine.Jni
 		
 		public void SetShort (JObject obj, short value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticShortField (
 					DeclaringClass.Handle,
@@ -311,8 +334,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -322,6 +344,7 @@ namespace Caffeine.Jni
 				
 		public int GetInt (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			int r;
 			
 			if (isStatic) {
@@ -336,8 +359,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 
@@ -348,6 +370,7 @@ namespace Caffeine.Jni
 		
 		public void SetInt (JObject obj, int value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticIntField (
 					DeclaringClass.Handle,
@@ -363,8 +386,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -374,6 +396,7 @@ namespace Caffeine.Jni
 		
 		public long GetLong (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			long r;
 			
 			if (isStatic) {
@@ -388,8 +411,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 
@@ -400,6 +422,7 @@ namespace Caffeine.Jni
 		
 		public void SetLong (JObject obj, long value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticLongField (
 					DeclaringClass.Handle,
@@ -415,8 +438,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -426,6 +448,7 @@ namespace Caffeine.Jni
 		
 		public float GetFloat (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			float r;
 			
 			if (isStatic) {
@@ -440,8 +463,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 		
@@ -452,6 +474,7 @@ namespace Caffeine.Jni
 		
 		public void SetFloat (JObject obj, float value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticFloatField (
 					DeclaringClass.Handle,
@@ -467,8 +490,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -478,6 +500,7 @@ namespace Caffeine.Jni
 		
 		public double GetDouble (JObject obj)
 		{
+			long start = JInstrumentation.Start ();
 			double r;
 			
 			if (isStatic) {
@@ -492,8 +515,7 @@ namespace Caffeine.Jni
 				}
 			}
 			
-			JThrowable.CheckAndThrow ();
-			
+			Done (start);
 			return r;
 		}
 
@@ -504,6 +526,7 @@ namespace Caffeine.Jni
 		
 		public void SetDouble (JObject obj, double value)
 		{
+			long start = JInstrumentation.Start ();
 			if (isStatic) {
 				SetStaticDoubleField (
 					DeclaringClass.Handle,
@@ -519,8 +542,7 @@ namespace Caffeine.Jni
 						value);
 				}
 			}
-			
-			JThrowable.CheckAndThrow ();
+			Done (start);
 		}
 
 		[DllImport(JNIEnv.DLL_JAVA)]
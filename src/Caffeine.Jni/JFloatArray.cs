@@ -45,15 +45,13 @@ namespace Caffeine.Jni
 		{
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
-			SetFloatArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 		}
 		
 		public override object Elements {
 			get {
 				float[] c = new float[Length];
-				GetFloatArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -63,11 +61,33 @@ namespace Caffeine.Jni
 
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseFloatArrayElements (IntPtr array, float[] elems, int mode);
+
+		public void GetRegion (int start, float[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetFloatArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, float[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetFloatArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetFloatArrayRegion (IntPtr array, int start, int len, float[] buf);
+		static extern void GetFloatArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetFloatArrayRegion (IntPtr array, int start, int len, float[] buf);
+		static extern void SetFloatArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Collections;
+	using System.IO;
+	using System.Runtime.InteropServices;
+	using System.Threading;
+
+	// Counts and times the calls made through every JMethod,
+	// JConstructor and JField while Enabled, eg. with
+	//
+	//	<instrument.calls value="true"/>
+	//	<instrument.dump value="60"/>
+	//
+	// in the jni.net configuration section, to dump the numbers every
+	// minute. When disabled, a call only pays for testing Enabled.
+	public sealed class JInstrumentation
+	{
+		static volatile bool enabled;
+		// "class.name signature" -> JCallStats
+		static readonly Hashtable stats = new Hashtable ();
+		static Timer dumper;
+
+		private JInstrumentation () {}
+
+		public static bool Enabled {
+			get {
+				return enabled;
+			}
+			set {
+				enabled = value;
+			}
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern long Microseconds ();
+
+		// the time a call starts, or 0 if calls are not timed
+		internal static long Start ()
+		{
+			return enabled ? Microseconds () : 0;
+		}
+
+		// records a call that started at start; cached holds the
+		// JCallStats of the member once looked up
+		internal static void Stop (IMember member, string sig,
+			ref JCallStats cached, long start, bool failed)
+		{
+			if (cached == null) {
+				cached = For (member.DeclaringClass.ClassName + "." +
+					member.Name + sig);
+			}
+			cached.Record (Microseconds () - start, failed);
+		}
+
+		static JCallStats For (string member)
+		{
+			JCallStats ret = (JCallStats) stats[member];
+			if (ret == null) {
+				lock (stats) {
+					ret = (JCallStats) stats[member];
+					if (ret == null) {
+						ret = new JCallStats (member);
+						stats[member] = ret;
+					}
+				}
+			}
+			return ret;
+		}
+
+		// a copy of the numbers of every member called so far
+		public static JCallStats[] Snapshot ()
+		{
+			ArrayList all;
+			lock (stats) {
+				all = new ArrayList (stats.Values);
+			}
+			JCallStats[] ret = new JCallStats [all.Count];
+			for (int i = 0; i < ret.Length; i++) {
+				ret[i] = ((JCallStats) all[i]).Copy ();
+			}
+			return ret;
+		}
+
+		public static void Reset ()
+		{
+			lock (stats) {
+				foreach (JCallStats s in stats.Values) {
+					s.Reset ();
+				}
+			}
+		}
+
+		// one line per member, the most called first
+		public static void Dump (TextWriter writer)
+		{
+			JCallStats[] all = Snapshot ();
+			Array.Sort (all);
+			writer.WriteLine ("{0,-60} {1,10} {2,8} {3,8} {4,8} {5,8}",
+				"member", "calls", "thrown", "p50us", "p99us", "maxus");
+			foreach (JCallStats s in all) {
+				writer.WriteLine ("{0,-60} {1,10} {2,8} {3,8} {4,8} {5,8}",
+					s.Member, s.Calls, s.Exceptions,
+					s.Percentile (0.5), s.Percentile (0.99),
+					s.Percentile (1));
+			}
+			writer.Flush ();
+		}
+
+		// dumps to writer every interval seconds until StopDump
+		public static void StartDump (TextWriter writer, int interval)
+		{
+			lock (stats) {
+				StopDump ();
+				dumper = new Timer (new TimerCallback (DumpTo),
+					TextWriter.Synchronized (writer),
+					interval * 1000, interval * 1000);
+			}
+		}
+
+		public static void StopDump ()
+		{
+			lock (stats) {
+				if (dumper != null) {
+					dumper.Dispose ();
+					dumper = null;
+				}
+			}
+		}
+
+		static void DumpTo (object writer)
+		{
+			Dump ((TextWriter) writer);
+		}
+	}
+
+	// The calls made to one member. Latencies are kept in a histogram
+	// whose bucket i counts calls that took under 2^i microseconds,
+	// and at least 2^(i-1), so percentiles are upper bounds within a
+	// factor of two. Counters are only ever incremented atomically;
+	// reading them is not, so a 32-bit runtime may return a number
+	// that is slightly off while calls are being recorded.
+	public sealed class JCallStats : IComparable
+	{
+		public const int Buckets = 32;
+
+		readonly string member;
+		long calls;
+		long exceptions;
+		readonly long[] histogram = new long [Buckets];
+
+		internal JCallStats (string member)
+		{
+			this.member = member;
+		}
+
+		// the class, name and signature of the member
+		public string Member {
+			get {
+				return member;
+			}
+		}
+
+		public long Calls {
+			get {
+				return calls;
+			}
+		}
+
+		public long Exceptions {
+			get {
+				return exceptions;
+			}
+		}
+
+		// the number of calls in each bucket
+		public long[] Histogram {
+			get {
+				return (long[]) histogram.Clone ();
+			}
+		}
+
+		internal void Record (long elapsed, bool failed)
+		{
+			int bucket = 0;
+			while (elapsed > 0 && bucket < Buckets - 1) {
+				elapsed >>= 1;
+				bucket++;
+			}
+			Interlocked.Increment (ref histogram[bucket]);
+			Interlocked.Increment (ref calls);
+			if (failed) {
+				Interlocked.Increment (ref exceptions);
+			}
+		}
+
+		// the microseconds within which a fraction p of the calls
+		// completed
+		public long Percentile (double p)
+		{
+			long total = 0;
+			for (int i = 0; i < Buckets; i++) {
+				total += histogram[i];
+			}
+			long wanted = (long) Math.Ceiling (total * p);
+			long seen = 0;
+			for (int i = 0; i < Buckets; i++) {
+				seen += histogram[i];
+				if (seen >= wanted && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 0;
+		}
+
+		internal JCallStats Copy ()
+		{
+			JCallStats ret = new JCallStats (member);
+			ret.calls = Calls;
+			ret.exceptions = Exceptions;
+			for (int i = 0; i < Buckets; i++) {
+				ret.histogram[i] = histogram[i];
+			}
+			return ret;
+		}
+
+		internal void Reset ()
+		{
+			for (int i = 0; i < Buckets; i++) {
+				histogram[i] = 0;
+			}
+			calls = 0;
+			exceptions = 0;
+		}
+
+		// the most called first
+		public int CompareTo (object other)
+		{
+			return ((JCallStats) other).calls.CompareTo (calls);
+		}
+	}
+}
@@ -45,15 +45,13 @@ namespace Caffeine.Jni
 		{
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
-			SetIntArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 		}
 		
 		public override object Elements {
 			get {
 				int[] c = new int[Length];
-				GetIntArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -64,10 +62,32 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseIntArrayElements (IntPtr array, int[] elems, int mode);
 
+		public void GetRegion (int start, int[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetIntArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, int[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetIntArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetIntArrayRegion (IntPtr array, int start, int len, int[] buf);
+		static extern void GetIntArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetIntArrayRegion (IntPtr array, int start, int len, int[] buf);
+		static extern void SetIntArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
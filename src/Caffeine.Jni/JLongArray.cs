@@ -45,15 +45,13 @@ namespace Caffeine.Jni
 		{
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
-			SetLongArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 		}
 		
 		public override object Elements {
 			get {
 				long[] c = new long[Length];
-				GetLongArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -63,12 +61,34 @@ namespace Caffeine.Jni
 		static extern long[] GetLongArrayElements (IntPtr array, out bool isCopy);	
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void ReleaseLongArrayElements (IntPtr array, long[] elems, int mode);		
+		static extern void ReleaseLongArrayElements (IntPtr array, long[] elems, int mode);
 
+		public void GetRegion (int start, long[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetLongArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, long[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetLongArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetLongArrayRegion (IntPtr array, int start, int len, long[] buf);
-
+		static extern void GetLongArrayRegion (IntPtr array, int start, int len, IntPtr buf);
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetLongArrayRegion (IntPtr array, int start, int len, long[] buf);
+		static extern void SetLongArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
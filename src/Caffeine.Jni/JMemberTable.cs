@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Threading;
+
+	// The constructors, methods and fields of a Java class, looked
+	// up the first time each of them is used. Generated proxies keep
+	// one table per class instead of resolving every member up front.
+	//
+	// A member is described as name + JNI signature, eg.
+	// "<init>([C)V" or "length()I", and a field as name, space and
+	// signature, eg. "count I"; static members are prefixed with
+	// "static ", eg. "static valueOf(I)Ljava/lang/String;".
+	public sealed class JMemberTable
+	{
+		readonly string className;
+		readonly string[] descriptions;
+		readonly IMember[] members;
+		JClass clazz;
+
+		public JMemberTable (string className, string[] descriptions)
+		{
+			this.className = className;
+			this.descriptions = descriptions;
+			this.members = new IMember [descriptions.Length];
+		}
+
+		public JClass Class {
+			get {
+				if (clazz == null) {
+					lock (this) {
+						if (clazz == null) {
+							JClass c = JClass.ForName (className);
+							// publish the fully built object
+							Thread.MemoryBarrier ();
+							clazz = c;
+						}
+					}
+				}
+				return clazz;
+			}
+		}
+
+		public JConstructor Constructor (int index)
+		{
+			return (JConstructor) Member (index);
+		}
+
+		public JMethod Method (int index)
+		{
+			return (JMethod) Member (index);
+		}
+
+		public JField Field (int index)
+		{
+			return (JField) Member (index);
+		}
+
+		IMember Member (int index)
+		{
+			IMember ret = members[index];
+			if (ret == null) {
+				JClass declaringClass = Class;
+				lock (this) {
+					ret = members[index];
+					if (ret == null) {
+						ret = Resolve (declaringClass,
+							descriptions[index]);
+						Thread.MemoryBarrier ();
+						members[index] = ret;
+					}
+				}
+			}
+			return ret;
+		}
+
+		static IMember Resolve (JClass declaringClass, string description)
+		{
+			bool isStatic = description.StartsWith ("static ");
+			if (isStatic) {
+				description = description.Substring (7);
+			}
+			int l = description.IndexOf ('(');
+			if (l < 0) {
+				l = description.IndexOf (' ');
+				string field = description.Substring (0, l);
+				string type = description.Substring (l + 1);
+				if (isStatic) {
+					return declaringClass.GetStaticField (field, type);
+				}
+				return declaringClass.GetField (field, type);
+			}
+			string name = description.Substring (0, l);
+			string sig = description.Substring (l);
+
+			if (name.Equals ("<init>")) {
+				return declaringClass.GetConstructor (sig);
+			}
+			if (isStatic) {
+				return declaringClass.GetStaticMethod (name, sig);
+			}
+			return declaringClass.GetMethod (name, sig);
+		}
+	}
+}
@@ -36,13 +36,15 @@ namespace Caffeine.Jni
 		readonly string sig;
 		bool isArray;
 		JMethodReturnType rType;
+		// see JInstrumentation
+		JCallStats stats;
 		
 		internal JMethod (JClass declaringClass, 
 			string name,
 			string sig,
 			bool isStatic,
 			IntPtr methodID) 
-			: base (methodID)
+			: base (methodID, JRefKind.None)
 		{
 			this.declaringClass = declaringClass;
 			this.name = name;
@@ -156,320 +158,377 @@ namespace Caffeine.Jni
 				}
 		}
 		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern bool CallStaticBooleanMethod (IntPtr clazz, IntPtr methodID, JValue[] value);		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern bool CallBooleanMethod (IntPtr obj, IntPtr methodID, JValue[] value);
-				
-		public bool CallBoolean (JObject obj, JValue[] args)
+		// see Invoke in jvm.c
+		const int INVOKE_STATIC = 0x100;
+		
+		// makes the call and checks for an exception in a single
+		// native call; returns the exception thrown, if any
+		[DllImport(JNIEnv.DLL_JAVA, EntryPoint="Invoke")]
+		static extern IntPtr CallChecked (IntPtr obj, IntPtr methodID, int type, JValue[] args, out JValue result);
+		
+		[DllImport(JNIEnv.DLL_JAVA, EntryPoint="Invoke")]
+		static extern IntPtr CallChecked (IntPtr obj, IntPtr methodID, int type, ref JArgs args, out JValue result);
+		
+		// the receiver and the type passed to Invoke in jvm.c, eg.
+		// for a JBatch
+		internal IntPtr Target (JObject obj)
+		{
+			return isStatic ? DeclaringClass.Handle : obj.Handle;
+		}
+		
+		internal int InvokeType {
+			get {
+				// arrays are objects
+				char c = sig[sig.LastIndexOf (')') + 1];
+				if (c == '[') {
+					c = 'L';
+				}
+				return isStatic ? c | INVOKE_STATIC : c;
+			}
+		}
+		
+		JValue Call (JObject obj, char returnType, JValue[] args)
 		{
-			bool r;
+			JValue r;
+			IntPtr thrown;
+			long start = JInstrumentation.Start ();
 			
 			if (isStatic) {
-				r = CallStaticBooleanMethod (
+				thrown = CallChecked (
 					DeclaringClass.Handle,
 					Handle,
-					args);
+					returnType | INVOKE_STATIC | JNIFrame.InvokeFlags,
+					args,
+					out r);
 			} else {
-				r = CallBooleanMethod (
+				thrown = CallChecked (
 					obj.Handle,
 					Handle,
-					args);
+					returnType | JNIFrame.InvokeFlags,
+					args,
+					out r);
+			}
+			
+			if (start != 0) {
+				JInstrumentation.Stop (this, sig, ref stats, start,
+					thrown != IntPtr.Zero);
+			}
+			if (thrown != IntPtr.Zero) {
+				JThrowable.Raise (thrown);
 			}
 			
-			JThrowable.CheckAndThrow ();
-
 			return r;
 		}
 		
-		public bool CallBoolean (JObject obj, params object[] args)
-		{			
-			return CallBoolean (obj, JValue.Convert (args));
-		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern sbyte CallStaticByteMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
-				
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern sbyte CallByteMethod (IntPtr obj, IntPtr methodID, JValue[] value);
-		
-		public sbyte CallByte (JObject obj, JValue[] args)
+		JValue Call (JObject obj, char returnType, ref JArgs args)
 		{
-			sbyte r;
+			JValue r;
+			IntPtr thrown;
+			long start = JInstrumentation.Start ();
 			
 			if (isStatic) {
-				r = CallStaticByteMethod (
+				thrown = CallChecked (
 					DeclaringClass.Handle,
 					Handle,
-					args);
+					returnType | INVOKE_STATIC | JNIFrame.InvokeFlags,
+					ref args,
+					out r);
 			} else {
-				r = CallByteMethod (
+				thrown = CallChecked (
 					obj.Handle,
 					Handle,
-					args);
+					returnType | JNIFrame.InvokeFlags,
+					ref args,
+					out r);
+			}
+			
+			if (start != 0) {
+				JInstrumentation.Stop (this, sig, ref stats, start,
+					thrown != IntPtr.Zero);
+			}
+			if (thrown != IntPtr.Zero) {
+				JThrowable.Raise (thrown);
 			}
 			
-			JThrowable.CheckAndThrow ();
-
 			return r;
 		}
 		
-		public sbyte CallByte (JObject obj, params object[] args)
+		public bool CallBoolean (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'Z', args);
+			return r.JBool;
+		}
+		
+		public bool CallBoolean (JObject obj, params object[] args)
 		{			
-			return CallByte (obj, JValue.Convert (args));
+			return CallBoolean (obj, JValue.Convert (args));
 		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern ushort CallStaticCharMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
+		public bool CallBoolean (JObject obj, ref JArgs args)
+		{
+			JValue r = Call (obj, 'Z', ref args);
+			return r.JBool;
+		}
+
+		public bool CallBoolean (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'Z', args.Values);
+			return r.JBool;
+		}
+
+		public bool CallBoolean (JObject obj)
+		{
+			return CallBoolean (obj, JValueInternal.EmptyArgs);
+		}
 		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern ushort CallCharMethod (IntPtr obj, IntPtr methodID, JValue[] value);
+		public sbyte CallByte (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'B', args);
+			return (sbyte) r.JByte;
+		}
 		
-		public char CallChar (JObject obj, JValue[] args)
+		public sbyte CallByte (JObject obj, params object[] args)
+		{			
+			return CallByte (obj, JValue.Convert (args));
+		}
+
+		public sbyte CallByte (JObject obj, ref JArgs args)
 		{
-			ushort r;
-			
-			if (isStatic) {
-				r = CallStaticCharMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallCharMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+			JValue r = Call (obj, 'B', ref args);
+			return (sbyte) r.JByte;
+		}
 
-			return (char) r;
+		public sbyte CallByte (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'B', args.Values);
+			return (sbyte) r.JByte;
 		}
 
+		public sbyte CallByte (JObject obj)
+		{
+			return CallByte (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public char CallChar (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'C', args);
+			return r.JChar;
+		}
+		
 		public char CallChar (JObject obj, params object[] args)
 		{			
 			return CallChar (obj, JValue.Convert (args));
 		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern short CallStaticShortMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
+		public char CallChar (JObject obj, ref JArgs args)
+		{
+			JValue r = Call (obj, 'C', ref args);
+			return r.JChar;
+		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern short CallShortMethod (IntPtr obj, IntPtr methodID, JValue[] value);
+		public char CallChar (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'C', args.Values);
+			return r.JChar;
+		}
+
+		public char CallChar (JObject obj)
+		{
+			return CallChar (obj, JValueInternal.EmptyArgs);
+		}
 		
 		public short CallShort (JObject obj, JValue[] args)
 		{
-			short r;
-			
-			if (isStatic) {
-				r = CallStaticShortMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallShortMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
-
-			return r;
+			JValue r = Call (obj, 'S', args);
+			return r.JShort;
 		}
-
+		
 		public short CallShort (JObject obj, params object[] args)
 		{			
 			return CallShort (obj, JValue.Convert (args));
 		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern int CallStaticIntMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
-				
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern int CallIntMethod (IntPtr obj, IntPtr methodID, JValue[] value);
-		
-		public int CallInt (JObject obj, JValue[] args)
+		public short CallShort (JObject obj, ref JArgs args)
 		{
-			int r;
-			
-			if (isStatic) {
-				r = CallStaticIntMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallIntMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+			JValue r = Call (obj, 'S', ref args);
+			return r.JShort;
+		}
 
-			return r;
+		public short CallShort (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'S', args.Values);
+			return r.JShort;
 		}
 
+		public short CallShort (JObject obj)
+		{
+			return CallShort (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public int CallInt (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'I', args);
+			return r.JInt;
+		}
+		
 		public int CallInt (JObject obj, params object[] args)
 		{			
 			return CallInt (obj, JValue.Convert (args));
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern long CallStaticLongMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern long CallLongMethod (IntPtr obj, IntPtr methodID, JValue[] value);
-		
-		public long CallLong (JObject obj, JValue[] args)
+
+		public int CallInt (JObject obj, ref JArgs args)
 		{
-			long r;
-			
-			if (isStatic) {
-				r = CallStaticLongMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallLongMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+			JValue r = Call (obj, 'I', ref args);
+			return r.JInt;
+		}
 
-			return r;
+		public int CallInt (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'I', args.Values);
+			return r.JInt;
 		}
 
+		public int CallInt (JObject obj)
+		{
+			return CallInt (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public long CallLong (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'J', args);
+			return r.JLong;
+		}
+		
 		public long CallLong (JObject obj, params object[] args)
 		{			
 			return CallLong (obj, JValue.Convert (args));
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern float CallStaticFloatMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern float CallFloatMethod (IntPtr obj, IntPtr methodID, JValue[] value);
 
-		public float CallFloat (JObject obj, JValue[] args)
+		public long CallLong (JObject obj, ref JArgs args)
 		{
-			float  r;
-			
-			if (isStatic) {
-				r = CallStaticFloatMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallFloatMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+			JValue r = Call (obj, 'J', ref args);
+			return r.JLong;
+		}
 
-			return r;
+		public long CallLong (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'J', args.Values);
+			return r.JLong;
 		}
 
+		public long CallLong (JObject obj)
+		{
+			return CallLong (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public float CallFloat (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'F', args);
+			return r.JFloat;
+		}
+		
 		public float CallFloat (JObject obj, params object[] args)
 		{			
 			return CallFloat (obj, JValue.Convert (args));
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern double CallStaticDoubleMethod (IntPtr clazz, IntPtr methodID, JValue[] value);
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern double CallDoubleMethod (IntPtr obj, IntPtr methodID, JValue[] value);
-		
-		public double CallDouble (JObject obj, JValue[] args)
+
+		public float CallFloat (JObject obj, ref JArgs args)
 		{
-			double r;
-			
-			if (isStatic) {
-				r = CallStaticDoubleMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallDoubleMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+			JValue r = Call (obj, 'F', ref args);
+			return r.JFloat;
+		}
 
-			return r;
+		public float CallFloat (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'F', args.Values);
+			return r.JFloat;
 		}
 
+		public float CallFloat (JObject obj)
+		{
+			return CallFloat (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public double CallDouble (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'D', args);
+			return r.JDouble;
+		}
+		
 		public double CallDouble (JObject obj, params object[] args)
 		{			
 			return CallDouble (obj, JValue.Convert (args));
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void CallStaticVoidMethod (IntPtr cls, IntPtr methodID, JValue[] args);
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void CallVoidMethod (IntPtr obj, IntPtr methodID, JValue[] value);
+		public double CallDouble (JObject obj, ref JArgs args)
+		{
+			JValue r = Call (obj, 'D', ref args);
+			return r.JDouble;
+		}
+
+		public double CallDouble (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'D', args.Values);
+			return r.JDouble;
+		}
 
+		public double CallDouble (JObject obj)
+		{
+			return CallDouble (obj, JValueInternal.EmptyArgs);
+		}
+		
 		public void CallVoid (JObject obj, JValue[] args)
-		{			
-			if (isStatic) {
-				CallStaticVoidMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				CallVoidMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
+		{
+			Call (obj, 'V', args);
 		}
 
 		public void CallVoid (JObject obj, params object[] args)
 		{
 			CallVoid (obj, JValue.Convert (args));
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr CallStaticObjectMethod (IntPtr cls, IntPtr methodID, JValue[] args);
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr CallObjectMethod (IntPtr obj, IntPtr methodID, JValue[] value);
+		public void CallVoid (JObject obj, ref JArgs args)
+		{
+			Call (obj, 'V', ref args);
+		}
 
-		public JObject CallObject (JObject obj, JValue[] args)
+		public void CallVoid (JObject obj, JArguments args)
 		{
-			IntPtr r;
-			
-			if (isStatic) {
-				r = CallStaticObjectMethod (
-					DeclaringClass.Handle,
-					Handle,
-					args);
-			} else {
-				r = CallObjectMethod (
-					obj.Handle,
-					Handle,
-					args);
-			}
-			
-			JThrowable.CheckAndThrow ();
-			
-			return new JObject (r);
+			Call (obj, 'V', args.Values);
 		}
 
+		public void CallVoid (JObject obj)
+		{
+			CallVoid (obj, JValueInternal.EmptyArgs);
+		}
+		
+		public JObject CallObject (JObject obj, JValue[] args)
+		{
+			JValue r = Call (obj, 'L', args);
+			return new JObject (r.Reference, JNIFrame.ResultKind);
+		}
+		
 		public JObject CallObject (JObject obj, params object[] args)
 		{			
 			return CallObject (obj, JValue.Convert (args));
 		}
+
+		public JObject CallObject (JObject obj, ref JArgs args)
+		{
+			JValue r = Call (obj, 'L', ref args);
+			return new JObject (r.Reference, JNIFrame.ResultKind);
+		}
+
+		public JObject CallObject (JObject obj, JArguments args)
+		{
+			JValue r = Call (obj, 'L', args.Values);
+			return new JObject (r.Reference, JNIFrame.ResultKind);
+		}
+
+		public JObject CallObject (JObject obj)
+		{
+			return CallObject (obj, JValueInternal.EmptyArgs);
+		}
 				
 		// I can hardly see any need for any of the following methods
 		// only used in situations like super.foo ();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Runtime.InteropServices;
+
+	// A JNI local reference frame, ambient to the thread that creates
+	// it until it is disposed:
+	//
+	//	JObject found = null;
+	//	using (JNIFrame frame = new JNIFrame ()) {
+	//		for (int i = 0; i < n; i++) {
+	//			JObject item = list.get (i);
+	//			if (Matches (item)) {
+	//				found = frame.Promote (item);
+	//			}
+	//		}
+	//	}
+	//
+	// Outside a frame every JObject holds a global reference, see
+	// JReferences. Inside one, the objects returned by Java, including
+	// those of generated proxies, keep the local reference they come
+	// with: nothing is promoted, queued or released one by one, and
+	// they are all freed at once when the frame is disposed. They must
+	// not be used afterwards, nor on another thread, unless they were
+	// promoted. Cached classes and exceptions always hold global
+	// references.
+	public sealed class JNIFrame : IDisposable
+	{
+		public const int DefaultCapacity = 16;
+
+		// see Invoke in jvm.c
+		const int INVOKE_LOCAL = 0x400;
+
+		[ThreadStatic]
+		static JNIFrame current;
+
+		readonly JNIFrame outer;
+		bool disposed;
+		// the local references of JObjects in the frame, see
+		// JReferences.LiveLocals
+		int locals;
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern int PushLocalFrame (int capacity);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr PopLocalFrame (IntPtr result);
+
+		public JNIFrame () : this (DefaultCapacity)
+		{
+		}
+
+		// capacity is the number of local references the frame is
+		// guaranteed to hold; Java VMs usually allow more
+		public JNIFrame (int capacity)
+		{
+			if (PushLocalFrame (capacity) < 0) {
+				JThrowable.Clear ();
+				throw new OutOfMemoryException ();
+			}
+			outer = current;
+			current = this;
+		}
+
+		// the innermost frame of the calling thread, or null
+		public static JNIFrame Current {
+			get {
+				return current;
+			}
+		}
+
+		// how objects returned by Java are held on this thread
+		internal static JRefKind ResultKind {
+			get {
+				return current != null ? JRefKind.Local : JRefKind.Global;
+			}
+		}
+
+		// the flag for Invoke in jvm.c that matches ResultKind
+		internal static int InvokeFlags {
+			get {
+				return current != null ? INVOKE_LOCAL : 0;
+			}
+		}
+
+		// makes obj outlive the frame by giving it a global
+		// reference; returns obj
+		public JObject Promote (JObject obj)
+		{
+			if (obj != null && obj.Promote ()) {
+				locals--;
+			}
+			return obj;
+		}
+
+		internal void Created ()
+		{
+			locals++;
+		}
+
+		// frees every local reference created in the frame
+		public void Dispose ()
+		{
+			if (disposed) {
+				return;
+			}
+			if (current != this) {
+				throw new InvalidOperationException (
+					"JNIFrames must be disposed in reverse order, " +
+					"on the thread that created them");
+			}
+			PopLocalFrame (IntPtr.Zero);
+			JReferences.Dropped (JRefKind.Local, locals);
+			current = outer;
+			disposed = true;
+		}
+	}
+}
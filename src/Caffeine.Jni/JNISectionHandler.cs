@@ -36,6 +36,10 @@ namespace Caffeine.Jni
 		const string JAVA_LIBRARY_PATH = "java.library.path";
 		const string JVM_DLL = "jvm.dll";
 		const string JAVA_OPTION = "java.option";
+		const string ATTACH_DAEMON = "attach.daemon";
+		const string INSTRUMENT_CALLS = "instrument.calls";
+		const string INSTRUMENT_DUMP = "instrument.dump";
+		const string REFERENCES_SAMPLE = "references.sample";
 		
 		public object Create (object parent, 
 			object configContext, 
@@ -44,6 +48,10 @@ namespace Caffeine.Jni
 			StringBuilder java_class_path = new StringBuilder ();
 			StringBuilder java_library_path = new StringBuilder ();
 			string jvm_dll = null;
+			bool attach_daemon = false;
+			bool instrument_calls = false;
+			int instrument_dump = 0;
+			int references_sample = 0;
 			ArrayList options = new ArrayList ();			
 						
 			foreach (XmlNode node in section.ChildNodes) {
@@ -66,6 +74,18 @@ namespace Caffeine.Jni
 				} else if (nn.Equals (JAVA_OPTION) &&
 					value.Length > 0) {
 					options.Add (value);
+				} else if (nn.Equals (ATTACH_DAEMON) &&
+					value.Length > 0) {
+					attach_daemon = value.Equals ("true");
+				} else if (nn.Equals (INSTRUMENT_CALLS) &&
+					value.Length > 0) {
+					instrument_calls = value.Equals ("true");
+				} else if (nn.Equals (INSTRUMENT_DUMP) &&
+					value.Length > 0) {
+					instrument_dump = Int32.Parse (value);
+				} else if (nn.Equals (REFERENCES_SAMPLE) &&
+					value.Length > 0) {
+					references_sample = Int32.Parse (value);
 				} else {
 					// ignore
 				}
@@ -75,7 +95,11 @@ namespace Caffeine.Jni
 				java_class_path.ToString (),
 				java_library_path.ToString (),
 				jvm_dll,
-				(string[]) options.ToArray (typeof (string)));
+				(string[]) options.ToArray (typeof (string)),
+				attach_daemon,
+				instrument_calls,
+				instrument_dump,
+				references_sample);
 			return conf;
 		}
 		
@@ -106,16 +130,32 @@ namespace Caffeine.Jni
 		public readonly string java_library_path;
 		public readonly string jvm_dll;
 		public readonly string[] java_option;
+		// attach threads calling into Java as daemon threads
+		public readonly bool attach_daemon;
+		// see JInstrumentation
+		public readonly bool instrument_calls;
+		// seconds between dumps of the call numbers, 0 for none
+		public readonly int instrument_dump;
+		// see JReferences.SampleRate
+		public readonly int references_sample;
 		
 		internal JNIConfiguration (string cp,
 			string libpath,
 			string dll,
-			string[] options)
+			string[] options,
+			bool daemon,
+			bool instrument,
+			int dump,
+			int sample)
 		{
 			java_class_path = cp;
 			java_library_path = libpath;
 			jvm_dll = dll;
 			java_option = options;
+			attach_daemon = daemon;
+			instrument_calls = instrument;
+			instrument_dump = dump;
+			references_sample = sample;
 		}
 	}
 }
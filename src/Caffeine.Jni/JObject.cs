@@ -30,42 +30,64 @@ namespace Caffeine.Jni
 	public class JObject : IDisposable
 	{
 		HandleRef native;
+		JRefKind kind;
 		bool avoidDelete;
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr NewObject (IntPtr clazz, IntPtr methodID, JValue[] args);
+		// shared by a cache, see Pin
+		bool pinned;
 		
 		public JObject (JConstructor ctr, params object[] args)
+			: this (ctr.NewObject (JValue.Convert (args)), JNIFrame.ResultKind)
 		{
-			JValue[] initArgs = JValue.Convert (args);
-			IntPtr raw = NewObject (ctr.DeclaringClass.Handle, ctr.Handle, initArgs);
-			if (raw == IntPtr.Zero) {
-				JThrowable.CheckAndThrow ();
-			}
-			native = new HandleRef(this, raw);
-			this.avoidDelete = false;
 		}
 		
-		internal JObject (IntPtr raw)
+		public JObject (JConstructor ctr, JArguments args)
+			: this (ctr.NewObject (args.Values), JNIFrame.ResultKind)
+		{
+		}
+		
+		// raw is a local reference just returned by JNI: the object
+		// keeps a global reference instead, see JReferences, unless
+		// it is created inside a JNIFrame
+		internal JObject (IntPtr raw) : this (raw, JRefKind.Local)
+		{
+		}
+		
+		internal JObject (IntPtr raw, JRefKind kind)
 		{
 			if (raw == IntPtr.Zero)
 			{
 				JThrowable.Clear ();
 				throw new OutOfMemoryException ();
 			}
+			if (kind == JRefKind.Local && JNIFrame.Current == null) {
+				raw = JReferences.Promote (raw);
+				kind = JRefKind.Global;
+			}
 			native = new HandleRef(this, raw);
+			this.kind = kind;
 			this.avoidDelete = false;
+			JReferences.Created (this, raw, kind);
 		}
 		
 		protected JObject (JObject other)
 		{
-			if (other != null) {
+			if (other != null && other.pinned) {
+				// a cache still hands the object out, so it keeps
+				// its reference and this one gets its own
+				IntPtr raw = JReferences.Duplicate (other.Handle);
+				this.native = new HandleRef(this, raw);
+				this.kind = JRefKind.Global;
+				this.avoidDelete = false;
+				JReferences.Created (this, raw, kind);
+			} else if (other != null) {
 				this.native = other.native;
+				this.kind = other.kind;
 				this.avoidDelete = false;
 				// stop the destructor of the object being 
 				// copied to delete the local reference to the
 				// Java object
 				other.avoidDelete = true;
+				JReferences.Adopted (this, native.Handle);
 			}
 		}
 		
@@ -82,15 +104,44 @@ namespace Caffeine.Jni
 			System.GC.SuppressFinalize (this);
 		}
 
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void DeleteLocalRef (IntPtr obj);
-			
+		// the reference is queued and released in a batch later,
+		// so this is safe and cheap on the finalizer thread
 		void CleanUp() 
 		{
-			if (!avoidDelete) 
+			if (!avoidDelete && !pinned) 
 			{
-				DeleteLocalRef (native.Handle);
+				avoidDelete = true;
+				JReferences.Release (native.Handle, kind);
+			}
+		}
+		
+		// keeps Dispose and the finalizer from releasing an object
+		// that a cache hands out to everybody
+		internal void Pin ()
+		{
+			pinned = true;
+		}
+		
+		// called when the cache drops the object
+		internal void Unpin ()
+		{
+			pinned = false;
+			// Dispose may have suppressed finalization meanwhile
+			System.GC.ReRegisterForFinalize (this);
+		}
+		
+		// swaps a local reference for a global one, see JNIFrame;
+		// false if the reference was not local
+		internal bool Promote ()
+		{
+			if (kind != JRefKind.Local) {
+				return false;
 			}
+			JReferences.Dropped (JRefKind.Local, 1);
+			native = new HandleRef(this, JReferences.Promote (native.Handle));
+			kind = JRefKind.Global;
+			JReferences.Created (this, native.Handle, kind);
+			return true;
 		}
 		
 		internal IntPtr Handle {
@@ -26,8 +26,20 @@ namespace Caffeine.Jni
 	using System;
 	using System.Runtime.InteropServices;	
 
+	// Elements, GetRegion and SetRegion move whole ranges in a single
+	// native call rather than one per element, and arrays of strings
+	// go through GetStrings and the string[] constructor, which pass
+	// every character in one buffer:
+	//
+	//	string[] keys = new JObjectArray (keySet.CallObject (obj)).GetStrings ();
 	public class JObjectArray : JArray
 	{
+		// characters of the strings passed at a time, per thread
+		public const int BufferSize = 4096;
+		
+		[ThreadStatic]
+		static char[] buffer;
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr NewObjectArray (int len, IntPtr clazz, IntPtr init);
 		
@@ -47,44 +59,173 @@ namespace Caffeine.Jni
 		
 		public JObjectArray (JObject[] source, JClass clazz) : this (source.Length, clazz)
 		{
-			int l = source.Length;
-			for (int i = 0; i < l; i++) {
-				JObject o = source[i];
-				if (o != null) {
-					SetObjectArrayElement (this.Handle, i, o.Handle);
-				}
+			SetRegion (0, source, 0, source.Length);
+		}
+		
+		// a java.lang.String[] with the strings of source
+		public JObjectArray (string[] source) : base (NewStrings (source))
+		{
+		}
+		
+		// a new Java array of clazz, or null if source is null; the
+		// elements of source must be JObjects, eg. generated proxies
+		// or their interfaces
+		public static JObjectArray From (object[] source, JClass clazz)
+		{
+			if (source == null) {
+				return null;
 			}
-			
-			// TODO ArrayIndexOutOfBoundsException
-			// TODO ArrayStoreException
-			JThrowable.CheckAndThrow ();
+			JObjectArray ret = new JObjectArray (source.Length, clazz);
+			ret.Set (0, source, 0, source.Length);
+			return ret;
+		}
+		
+		// a new java.lang.String[], or null if source is null
+		public static JObjectArray From (string[] source)
+		{
+			if (source == null) {
+				return null;
+			}
+			return new JObjectArray (source);
 		}
 
 		public override object Elements {
 			get {
-				int l = Length;
-				JObject[] c = new JObject[Length];
-				for (int i = 0; i < l; i++) {
-					// TODO synchronization - not thread safe
-					IntPtr raw = GetObjectArrayElement (Handle, i);
-					// zero will happen with array 
-					// containing a null object reference
-					// not an actual exception
-					if (raw != IntPtr.Zero) {
-						c[i] = new JObject (raw);
-					}
-				}
-				
-				//TODO ArrayIndexOutOfBoundsException
-				JThrowable.CheckAndThrow ();				
+				JObject[] c = new JObject [Length];
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr GetObjectArrayElement (IntPtr array, int index);
+		static extern int GetObjectArrayRegion (IntPtr array, int start, int len, IntPtr[] buf, int local);
+		
+		// Copies len elements from start into buf at offset; null
+		// elements are null in buf.
+		public void GetRegion (int start, JObject[] buf, int offset, int len)
+		{
+			Check (start, buf, offset, len);
+			JRefKind kind = JNIFrame.ResultKind;
+			IntPtr[] refs = new IntPtr [len];
+			if (GetObjectArrayRegion (Handle, start, len, refs,
+					kind == JRefKind.Local ? 1 : 0) < 0) {
+				JThrowable.Clear ();
+				throw new OutOfMemoryException ();
+			}
+			for (int i = 0; i < len; i++) {
+				if (refs[i] != IntPtr.Zero) {
+					buf[offset + i] = new JObject (refs[i], kind);
+				} else {
+					buf[offset + i] = null;
+				}
+			}
+		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetObjectArrayElement (IntPtr array, int index, IntPtr val);
+		static extern IntPtr SetObjectArrayRegion (IntPtr array, int start, int len, IntPtr[] buf);
+		
+		// Copies len elements of buf from offset into this array at
+		// start; throws a JNIException wrapping an
+		// ArrayStoreException if one does not fit the array.
+		public void SetRegion (int start, JObject[] buf, int offset, int len)
+		{
+			Set (start, buf, offset, len);
+		}
+		
+		void Set (int start, object[] buf, int offset, int len)
+		{
+			Check (start, buf, offset, len);
+			IntPtr[] refs = new IntPtr [len];
+			for (int i = 0; i < len; i++) {
+				JObject o = (JObject) buf[offset + i];
+				if (o != null) {
+					refs[i] = o.Handle;
+				}
+			}
+			IntPtr thrown = SetObjectArrayRegion (Handle, start, len, refs);
+			// the references must outlive the call
+			GC.KeepAlive (buf);
+			if (thrown != IntPtr.Zero) {
+				JThrowable.Raise (thrown);
+			}
+		}
+		
+		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
+		static extern int GetStringArrayRegion (IntPtr array, int start, int len, int[] lengths, char[] chars, int capacity);
+		
+		// the elements of a java.lang.String[]
+		public string[] GetStrings ()
+		{
+			string[] ret = new string [Length];
+			GetStrings (0, ret, 0, ret.Length);
+			return ret;
+		}
+		
+		// Copies len strings from start into buf at offset; see
+		// JString.Intern.
+		public void GetStrings (int start, string[] buf, int offset, int len)
+		{
+			Check (start, buf, offset, len);
+			int[] lengths = new int [len];
+			char[] chars = Chars (0);
+			int total;
+			while ((total = GetStringArrayRegion (Handle, start, len,
+					lengths, chars, chars.Length)) > chars.Length) {
+				chars = Chars (total);
+			}
+			int pos = 0;
+			for (int i = 0; i < len; i++) {
+				int l = lengths[i];
+				if (l < 0) {
+					buf[offset + i] = null;
+				} else {
+					buf[offset + i] = JString.NewString (chars, pos, l);
+					pos += l;
+				}
+			}
+		}
+		
+		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
+		static extern IntPtr NewStringArray (int count, int[] lengths, char[] chars);
+		
+		static IntPtr NewStrings (string[] source)
+		{
+			if (source == null) {
+				throw new ArgumentNullException ("source");
+			}
+			int[] lengths = new int [source.Length];
+			int total = 0;
+			for (int i = 0; i < source.Length; i++) {
+				string s = source[i];
+				lengths[i] = s != null ? s.Length : -1;
+				if (s != null) {
+					total += s.Length;
+				}
+			}
+			char[] chars = Chars (total);
+			int pos = 0;
+			for (int i = 0; i < source.Length; i++) {
+				string s = source[i];
+				if (s != null) {
+					s.CopyTo (0, chars, pos, s.Length);
+					pos += s.Length;
+				}
+			}
+			return NewStringArray (source.Length, lengths, chars);
+		}
+		
+		// a buffer of at least size characters, kept for the thread
+		// unless it is larger than BufferSize
+		static char[] Chars (int size)
+		{
+			char[] ret = buffer;
+			if (ret == null) {
+				ret = buffer = new char [BufferSize];
+			}
+			if (size > ret.Length) {
+				ret = new char [size];
+			}
+			return ret;
+		}
 	}
 }
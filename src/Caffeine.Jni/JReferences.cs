@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.Collections;
+	using System.IO;
+	using System.Runtime.InteropServices;
+	using System.Threading;
+
+	// what the handle of a JObject is, and so how it is released
+	internal enum JRefKind
+	{
+		// not a reference, eg. a method or field ID
+		None,
+		// only valid on the thread and in the frame that created it
+		Local,
+		Global,
+		Weak
+	}
+
+	// Owns the lifetime of the JNI references held by JObjects.
+	//
+	// Every JObject promotes the local reference it is created with to
+	// a global one, which is valid on any thread. When the JObject is
+	// disposed or finalized its reference is not deleted right away:
+	// it is pushed onto a lock-free queue that a dedicated attached
+	// thread drains in batches, one native call per batch. Neither the
+	// finalizer thread nor the application pay a JNI transition for
+	// each dead object.
+	//
+	// The references held by JObjects are counted by kind as they are
+	// created and released, with the most there have been of each.
+	// With a SampleRate, one in so many global and weak references
+	// also records the Java class of its object and the .NET type that
+	// holds it, so that Survivors tells what is leaking, eg.
+	//
+	//	JReferences.SampleRate = 100;
+	//	...
+	//	JReferences.Dump (Console.Out);
+	//
+	// or <references.sample value="100"/> in the jni.net configuration
+	// section.
+	public sealed class JReferences
+	{
+		// references are released in batches of this size, or every
+		// FlushInterval milliseconds, whichever comes first
+		public const int BatchSize = 256;
+		public const int FlushInterval = 1000;
+
+		sealed class Node
+		{
+			internal readonly IntPtr handle;
+			internal readonly bool weak;
+			internal Node next;
+
+			internal Node (IntPtr handle, bool weak)
+			{
+				this.handle = handle;
+				this.weak = weak;
+			}
+		}
+
+		// a Treiber stack of Nodes
+		static object head;
+		static int pending;
+		static readonly AutoResetEvent wake = new AutoResetEvent (false);
+		static Thread releaser;
+		// set once the JavaVM is being destroyed
+		static volatile bool stopped;
+
+		// live references by JRefKind, and the most there have been
+		static readonly int[] live = new int [4];
+		static readonly int[] peak = new int [4];
+		// see SampleRate
+		static volatile int sampleRate;
+		static int created;
+		// handle -> Sample, for the sampled references still alive
+		static readonly Hashtable samples = new Hashtable ();
+
+		sealed class Sample
+		{
+			internal readonly string javaClass;
+			internal string holder;
+			internal readonly bool weak;
+
+			internal Sample (string javaClass, string holder, bool weak)
+			{
+				this.javaClass = javaClass;
+				this.holder = holder;
+				this.weak = weak;
+			}
+		}
+
+		private JReferences () {}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr PromoteLocalRef (IntPtr lobj);
+
+		// turns a fresh local reference into a global one and deletes
+		// the local reference, in a single native call
+		internal static IntPtr Promote (IntPtr lobj)
+		{
+			return PromoteLocalRef (lobj);
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr NewGlobalRef (IntPtr obj);
+
+		// a new global reference to the object of any other reference
+		internal static IntPtr Duplicate (IntPtr obj)
+		{
+			return NewGlobalRef (obj);
+		}
+
+		internal static void Release (IntPtr handle, JRefKind kind)
+		{
+			// local references die with their frame
+			if (handle == IntPtr.Zero || stopped ||
+				(kind != JRefKind.Global && kind != JRefKind.Weak)) {
+				return;
+			}
+			Interlocked.Decrement (ref live[(int) kind]);
+			if (samples.Count > 0) {
+				lock (samples) {
+					samples.Remove (handle);
+				}
+			}
+
+			Node node = new Node (handle, kind == JRefKind.Weak);
+			object top;
+			do {
+				top = head;
+				node.next = (Node) top;
+			} while (Interlocked.CompareExchange (ref head, node, top) != top);
+
+			if (Interlocked.Increment (ref pending) % BatchSize == 0) {
+				wake.Set ();
+			}
+		}
+
+		// references waiting to be released
+		public static int Pending {
+			get {
+				return pending;
+			}
+		}
+
+		// accounts for the reference obj has just been created with
+		internal static void Created (JObject obj, IntPtr handle,
+			JRefKind kind)
+		{
+			if (kind == JRefKind.None) {
+				return;
+			}
+			int i = (int) kind;
+			int n = Interlocked.Increment (ref live[i]);
+			int max;
+			while (n > (max = peak[i]) && Interlocked.CompareExchange (
+					ref peak[i], n, max) != max) {
+			}
+			if (kind == JRefKind.Local) {
+				JNIFrame frame = JNIFrame.Current;
+				if (frame != null) {
+					frame.Created ();
+				}
+				return;
+			}
+			int rate = sampleRate;
+			if (rate > 0 && Interlocked.Increment (ref created) % rate == 0) {
+				Sample sample = new Sample (ClassName (handle),
+					obj.GetType ().FullName,
+					kind == JRefKind.Weak);
+				lock (samples) {
+					samples[handle] = sample;
+				}
+			}
+		}
+
+		// obj holds the reference of a JObject it was copied from, eg.
+		// a generated proxy made out of a plain JObject
+		internal static void Adopted (JObject obj, IntPtr handle)
+		{
+			if (samples.Count > 0) {
+				lock (samples) {
+					Sample sample = (Sample) samples[handle];
+					if (sample != null) {
+						sample.holder = obj.GetType ().FullName;
+					}
+				}
+			}
+		}
+
+		// count local references of kind are gone, eg. with their frame
+		internal static void Dropped (JRefKind kind, int count)
+		{
+			int i = (int) kind;
+			int current;
+			do {
+				current = live[i];
+			} while (Interlocked.CompareExchange (ref live[i],
+					current - count, current) != current);
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
+		static extern int GetObjectClassName (IntPtr obj, char[] buf,
+			int capacity);
+
+		static string ClassName (IntPtr obj)
+		{
+			char[] buf = new char [256];
+			return new String (buf, 0,
+				GetObjectClassName (obj, buf, buf.Length));
+		}
+
+		// the references held by JObjects created inside a JNIFrame
+		// and not yet freed with it
+		public static int LiveLocals {
+			get {
+				return live[(int) JRefKind.Local];
+			}
+		}
+
+		public static int LiveGlobals {
+			get {
+				return live[(int) JRefKind.Global];
+			}
+		}
+
+		public static int LiveWeaks {
+			get {
+				return live[(int) JRefKind.Weak];
+			}
+		}
+
+		public static int PeakLocals {
+			get {
+				return peak[(int) JRefKind.Local];
+			}
+		}
+
+		public static int PeakGlobals {
+			get {
+				return peak[(int) JRefKind.Global];
+			}
+		}
+
+		public static int PeakWeaks {
+			get {
+				return peak[(int) JRefKind.Weak];
+			}
+		}
+
+		// starts the high-water marks again from the live counts
+		public static void ResetPeaks ()
+		{
+			for (int i = 0; i < peak.Length; i++) {
+				peak[i] = live[i];
+			}
+		}
+
+		// one in SampleRate global and weak references is sampled,
+		// none if 0. Sampling costs a native call to find the class of
+		// the object, and changing the rate keeps the samples taken
+		// so far.
+		public static int SampleRate {
+			get {
+				return sampleRate;
+			}
+			set {
+				if (value < 0) {
+					throw new ArgumentOutOfRangeException ("value");
+				}
+				sampleRate = value;
+			}
+		}
+
+		// the sampled references still alive, grouped by Java class
+		// and holder, the most common first
+		public static JReferenceSample[] Survivors ()
+		{
+			Hashtable groups = new Hashtable ();
+			lock (samples) {
+				foreach (Sample sample in samples.Values) {
+					string key = sample.javaClass + " " +
+						sample.holder + " " + sample.weak;
+					JReferenceSample group =
+						(JReferenceSample) groups[key];
+					if (group == null) {
+						group = new JReferenceSample (
+							sample.javaClass,
+							sample.holder,
+							sample.weak);
+						groups[key] = group;
+					}
+					group.count++;
+				}
+			}
+			JReferenceSample[] ret =
+				new JReferenceSample [groups.Count];
+			groups.Values.CopyTo (ret, 0);
+			Array.Sort (ret);
+			return ret;
+		}
+
+		public static void Dump (TextWriter writer)
+		{
+			writer.WriteLine ("{0,-8} {1,10} {2,10}", "kind", "live", "peak");
+			writer.WriteLine ("{0,-8} {1,10} {2,10}", "local",
+				LiveLocals, PeakLocals);
+			writer.WriteLine ("{0,-8} {1,10} {2,10}", "global",
+				LiveGlobals, PeakGlobals);
+			writer.WriteLine ("{0,-8} {1,10} {2,10}", "weak",
+				LiveWeaks, PeakWeaks);
+			writer.WriteLine ("{0,-8} {1,10}", "pending", Pending);
+			int rate = sampleRate;
+			if (rate > 0) {
+				writer.WriteLine ("{0,10} {1,-40} {2}",
+					"~live", "java class", "held by");
+				foreach (JReferenceSample s in Survivors ()) {
+					writer.WriteLine ("{0,10} {1,-40} {2}{3}",
+						s.Count * rate, s.JavaClass, s.Holder,
+						s.Weak ? " (weak)" : "");
+				}
+			}
+			writer.Flush ();
+		}
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void DeleteGlobalRefs (IntPtr[] refs, int count);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void DeleteWeakGlobalRefs (IntPtr[] refs, int count);
+
+		// releases every queued reference now; may be called from any
+		// thread, eg. after dropping a large number of objects
+		public static void Flush ()
+		{
+			Node node = (Node) Interlocked.Exchange (ref head, null);
+			if (node == null) {
+				return;
+			}
+
+			IntPtr[] globals = new IntPtr [BatchSize];
+			IntPtr[] weaks = new IntPtr [BatchSize];
+			int nGlobals = 0;
+			int nWeaks = 0;
+			int released = 0;
+			for (; node != null; node = node.next) {
+				if (node.weak) {
+					weaks[nWeaks++] = node.handle;
+					if (nWeaks == BatchSize) {
+						DeleteWeakGlobalRefs (weaks, nWeaks);
+						nWeaks = 0;
+					}
+				} else {
+					globals[nGlobals++] = node.handle;
+					if (nGlobals == BatchSize) {
+						DeleteGlobalRefs (globals, nGlobals);
+						nGlobals = 0;
+					}
+				}
+				released++;
+			}
+			if (nGlobals > 0) {
+				DeleteGlobalRefs (globals, nGlobals);
+			}
+			if (nWeaks > 0) {
+				DeleteWeakGlobalRefs (weaks, nWeaks);
+			}
+
+			int current;
+			do {
+				current = pending;
+			} while (Interlocked.CompareExchange (ref pending,
+					current - released, current) != current);
+		}
+
+		// called once the JavaVM is up
+		internal static void Start ()
+		{
+			lock (typeof (JReferences)) {
+				if (releaser != null) {
+					return;
+				}
+				releaser = new Thread (new ThreadStart (Run));
+				releaser.Name = "Caffeine.Jni reference releaser";
+				releaser.IsBackground = true;
+				releaser.Start ();
+			}
+		}
+
+		// releases what is queued and ignores anything released
+		// later, when the JavaVM is gone
+		internal static void Stop ()
+		{
+			lock (typeof (JReferences)) {
+				Flush ();
+				stopped = true;
+				wake.Set ();
+			}
+		}
+
+		static void Run ()
+		{
+			// must not keep the JavaVM alive
+			JavaVM.AttachAsDaemon ();
+			while (!stopped) {
+				wake.WaitOne (FlushInterval, false);
+				lock (typeof (JReferences)) {
+					if (!stopped) {
+						Flush ();
+						JDirectBuffer.Reclaim ();
+					}
+				}
+			}
+		}
+	}
+
+	// the sampled references alive of one Java class, held by one .NET
+	// type, see JReferences.Survivors
+	public sealed class JReferenceSample : IComparable
+	{
+		readonly string javaClass;
+		readonly string holder;
+		readonly bool weak;
+		internal int count;
+
+		internal JReferenceSample (string javaClass, string holder,
+			bool weak)
+		{
+			this.javaClass = javaClass;
+			this.holder = holder;
+			this.weak = weak;
+		}
+
+		// eg. "java.lang.String"
+		public string JavaClass {
+			get {
+				return javaClass;
+			}
+		}
+
+		// the full name of the JObject type, eg. a generated proxy
+		public string Holder {
+			get {
+				return holder;
+			}
+		}
+
+		public bool Weak {
+			get {
+				return weak;
+			}
+		}
+
+		// the samples, about one in JReferences.SampleRate of the
+		// references alive
+		public int Count {
+			get {
+				return count;
+			}
+		}
+
+		// the most common first
+		public int CompareTo (object other)
+		{
+			return ((JReferenceSample) other).count.CompareTo (count);
+		}
+	}
+}
@@ -45,15 +45,13 @@ namespace Caffeine.Jni
 		{
 			// TODO ArrayIndexOutOfBoundsException
 			JThrowable.CheckAndThrow ();
-			SetShortArrayRegion (Handle, 0, buf.Length, buf);
+			SetRegion (0, buf, 0, buf.Length);
 		}
 
 		public override object Elements {
 			get {
 				short[] c = new short[Length];
-				GetShortArrayRegion (Handle, 0, Length, c);
-				// TODO OutOfMemoryError			
-				JThrowable.CheckAndThrow ();
+				GetRegion (0, c, 0, c.Length);
 				return c;
 			}
 		}
@@ -63,11 +61,33 @@ namespace Caffeine.Jni
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void ReleaseShortArrayElements (IntPtr array, short[] elems, int mode);
+
+		public void GetRegion (int start, short[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				GetShortArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
+		
+		public void SetRegion (int start, short[] buf, int offset, int len)
+		{
+			IntPtr address;
+			GCHandle pin = Pin (start, buf, offset, len, out address);
+			try {
+				SetShortArrayRegion (Handle, start, len, address);
+			} finally {
+				pin.Free ();
+			}
+		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void GetShortArrayRegion (IntPtr array, int start, int len, short[] buf);
+		static extern void GetShortArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void SetShortArrayRegion (IntPtr array, int start, int len, short[] buf);
+		static extern void SetShortArrayRegion (IntPtr array, int start, int len, IntPtr buf);
 	}
 }
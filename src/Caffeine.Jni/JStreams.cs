@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2004 Bruno Fernandez-Ruiz <brunofr@olympum.com>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+namespace Caffeine.Jni
+{
+	using System;
+	using System.IO;
+	using System.Runtime.InteropServices;
+	using System.Text;
+
+	// Moves the data of JInputStream, JOutputStream, JReader and
+	// JWriter through a Java byte[] or char[] allocated once per
+	// stream: each chunk costs a single native call, which calls
+	// read or write in Java and copies the chunk straight from or to
+	// the .NET array.
+	sealed class JPump
+	{
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern int PumpRead (IntPtr source, IntPtr read, IntPtr buf, int chars, IntPtr dest, int len, out IntPtr thrown);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr PumpWrite (IntPtr sink, IntPtr write, IntPtr buf, int chars, IntPtr src, int len);
+
+		readonly JObject stream;
+		readonly JClass clazz;
+		readonly JMethod transfer;
+		readonly JObject array;
+		readonly bool chars;
+		readonly int capacity;
+
+		// className is java/io/InputStream, OutputStream, Reader or
+		// Writer, and transfer its read or write method
+		internal JPump (JObject stream, string className, string transfer,
+			bool chars, int capacity)
+		{
+			if (stream == null) {
+				throw new ArgumentNullException ("stream");
+			}
+			if (capacity <= 0) {
+				throw new ArgumentOutOfRangeException ("bufferSize");
+			}
+			this.stream = stream;
+			this.clazz = JClass.ForName (className);
+			this.chars = chars;
+			this.capacity = capacity;
+			if (chars) {
+				this.transfer = clazz.GetMethod (transfer,
+					transfer == "read" ? "([CII)I" : "([CII)V");
+				this.array = new JCharArray (capacity);
+			} else {
+				this.transfer = clazz.GetMethod (transfer,
+					transfer == "read" ? "([BII)I" : "([BII)V");
+				this.array = new JByteArray (capacity);
+			}
+		}
+
+		internal int Capacity {
+			get {
+				return capacity;
+			}
+		}
+
+		// reads at most len elements, and no more than the capacity,
+		// into buf from offset; 0 at the end of the stream
+		internal int Read (Array buf, int offset, int len)
+		{
+			len = Math.Min (len, capacity);
+			if (len == 0) {
+				return 0;
+			}
+			int n;
+			IntPtr thrown;
+			GCHandle pin = GCHandle.Alloc (buf, GCHandleType.Pinned);
+			try {
+				n = PumpRead (stream.Handle, transfer.Handle,
+					array.Handle, chars ? 1 : 0,
+					Marshal.UnsafeAddrOfPinnedArrayElement (buf, offset),
+					len, out thrown);
+			} finally {
+				pin.Free ();
+			}
+			if (n == -2) {
+				JThrowable.Raise (thrown);
+			}
+			return n < 0 ? 0 : n;
+		}
+
+		// writes the len elements of buf from offset, in chunks of the
+		// capacity
+		internal void Write (Array buf, int offset, int len)
+		{
+			if (len == 0) {
+				return;
+			}
+			IntPtr thrown = IntPtr.Zero;
+			GCHandle pin = GCHandle.Alloc (buf, GCHandleType.Pinned);
+			try {
+				while (len > 0 && thrown == IntPtr.Zero) {
+					int n = Math.Min (len, capacity);
+					thrown = PumpWrite (stream.Handle, transfer.Handle,
+						array.Handle, chars ? 1 : 0,
+						Marshal.UnsafeAddrOfPinnedArrayElement (buf, offset),
+						n);
+					offset += n;
+					len -= n;
+				}
+			} finally {
+				pin.Free ();
+			}
+			if (thrown != IntPtr.Zero) {
+				JThrowable.Raise (thrown);
+			}
+		}
+
+		// flush or close
+		internal void Call (string name)
+		{
+			clazz.GetMethod (name, "()V").CallVoid (stream);
+		}
+	}
+
+	// A read-only System.IO.Stream over a java.io.InputStream. Small
+	// reads are served from a read-ahead buffer filled a chunk at a
+	// time; reads of at least a chunk go straight to the caller's
+	// array. Like other streams, it is not safe for concurrent use.
+	public class JInputStream : Stream
+	{
+		public const int DefaultBufferSize = 65536;
+
+		readonly JPump pump;
+		readonly byte[] buffer;
+		int position;
+		int count;
+		bool closed;
+
+		public JInputStream (JObject stream)
+			: this (stream, DefaultBufferSize)
+		{
+		}
+
+		public JInputStream (JObject stream, int bufferSize)
+		{
+			pump = new JPump (stream, "java/io/InputStream", "read",
+				false, bufferSize);
+			buffer = new byte [bufferSize];
+		}
+
+		public override bool CanRead {
+			get {
+				return !closed;
+			}
+		}
+
+		public override bool CanSeek {
+			get {
+				return false;
+			}
+		}
+
+		public override bool CanWrite {
+			get {
+				return false;
+			}
+		}
+
+		public override long Length {
+			get {
+				throw new NotSupportedException ();
+			}
+		}
+
+		public override long Position {
+			get {
+				throw new NotSupportedException ();
+			}
+			set {
+				throw new NotSupportedException ();
+			}
+		}
+
+		public override int Read (byte[] buf, int offset, int len)
+		{
+			CheckRange (buf, offset, len);
+			CheckOpen (closed);
+			if (position == count) {
+				if (len >= buffer.Length) {
+					return pump.Read (buf, offset, len);
+				}
+				Fill ();
+			}
+			int n = Math.Min (len, count - position);
+			Buffer.BlockCopy (buffer, position, buf, offset, n);
+			position += n;
+			return n;
+		}
+
+		public override int ReadByte ()
+		{
+			CheckOpen (closed);
+			if (position == count) {
+				Fill ();
+				if (count == 0) {
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+
+		void Fill ()
+		{
+			position = 0;
+			count = pump.Read (buffer, 0, buffer.Length);
+		}
+
+		// nothing is buffered on the way out
+		public override void Flush ()
+		{
+		}
+
+		public override void Close ()
+		{
+			if (!closed) {
+				closed = true;
+				position = count = 0;
+				pump.Call ("close");
+			}
+		}
+
+		public override long Seek (long offset, SeekOrigin origin)
+		{
+			throw new NotSupportedException ();
+		}
+
+		public override void SetLength (long length)
+		{
+			throw new NotSupportedException ();
+		}
+
+		public override void Write (byte[] buf, int offset, int len)
+		{
+			throw new NotSupportedException ();
+		}
+
+		internal static void CheckRange (Array buf, int offset, int len)
+		{
+			if (buf == null) {
+				throw new ArgumentNullException ("buf");
+			}
+			if (offset < 0 || len < 0 || offset > buf.Length - len) {
+				throw new ArgumentOutOfRangeException ();
+			}
+		}
+
+		internal static void CheckOpen (bool closed)
+		{
+			if (closed) {
+				throw new ObjectDisposedException (null);
+			}
+		}
+	}
+
+	// A write-only System.IO.Stream over a java.io.OutputStream.
+	// Small writes are coalesced in a buffer that is written a chunk
+	// at a time, when it is full, on Flush and on Close; writes of
+	// at least a chunk go straight from the caller's array. Flush
+	// also flushes the Java stream.
+	public class JOutputStream : Stream
+	{
+		public const int DefaultBufferSize = 65536;
+
+		readonly JPump pump;
+		readonly byte[] buffer;
+		int count;
+		bool closed;
+
+		public JOutputStream (JObject stream)
+			: this (stream, DefaultBufferSize)
+		{
+		}
+
+		public JOutputStream (JObject stream, int bufferSize)
+		{
+			pump = new JPump (stream, "java/io/OutputStream", "write",
+				false, bufferSize);
+			buffer = new byte [bufferSize];
+		}
+
+		public override bool CanRead {
+			get {
+				return false;
+			}
+		}
+
+		public override bool CanSeek {
+			get {
+				return false;
+			}
+		}
+
+		public override bool CanWrite {
+			get {
+				return !closed;
+			}
+		}
+
+		public override long Length {
+			get {
+				throw new NotSupportedException ();
+			}
+		}
+
+		public override long Position {
+			get {
+				throw new NotSupportedException ();
+			}
+			set {
+				throw new NotSupportedException ();
+			}
+		}
+
+		public override void Write (byte[] buf, int offset, int len)
+		{
+			JInputStream.CheckRange (buf, offset, len);
+			JInputStream.CheckOpen (closed);
+			if (len > buffer.Length - count) {
+				Drain ();
+				if (len >= buffer.Length) {
+					pump.Write (buf, offset, len);
+					return;
+				}
+			}
+			Buffer.BlockCopy (buf, offset, buffer, count, len);
+			count += len;
+		}
+
+		public override void WriteByte (byte value)
+		{
+			JInputStream.CheckOpen (closed);
+			if (count == buffer.Length) {
+				Drain ();
+			}
+			buffer[count++] = value;
+		}
+
+		void Drain ()
+		{
+			int n = count;
+			count = 0;
+			pump.Write (buffer, 0, n);
+		}
+
+		public override void Flush ()
+		{
+			JInputStream.CheckOpen (closed);
+			Drain ();
+			pump.Call ("flush");
+		}
+
+		public override void Close ()
+		{
+			if (!closed) {
+				try {
+					Drain ();
+				} finally {
+					closed = true;
+					pump.Call ("close");
+				}
+			}
+		}
+
+		public override int Read (byte[] buf, int offset, int len)
+		{
+			throw new NotSupportedException ();
+		}
+
+		public override long Seek (long offset, SeekOrigin origin)
+		{
+			throw new NotSupportedException ();
+		}
+
+		public override void SetLength (long length)
+		{
+			throw new NotSupportedException ();
+		}
+	}
+
+	// A System.IO.TextReader over a java.io.Reader, with the same
+	// read-ahead as JInputStream.
+	public class JReader : TextReader
+	{
+		public const int DefaultBufferSize = 8192;
+
+		readonly JPump pump;
+		readonly char[] buffer;
+		int position;
+		int count;
+		bool closed;
+
+		public JReader (JObject reader)
+			: this (reader, DefaultBufferSize)
+		{
+		}
+
+		public JReader (JObject reader, int bufferSize)
+		{
+			pump = new JPump (reader, "java/io/Reader", "read",
+				true, bufferSize);
+			buffer = new char [bufferSize];
+		}
+
+		public override int Peek ()
+		{
+			JInputStream.CheckOpen (closed);
+			if (position == count) {
+				Fill ();
+				if (count == 0) {
+					return -1;
+				}
+			}
+			return buffer[position];
+		}
+
+		public override int Read ()
+		{
+			int c = Peek ();
+			if (c >= 0) {
+				position++;
+			}
+			return c;
+		}
+
+		public override int Read (char[] buf, int index, int len)
+		{
+			JInputStream.CheckRange (buf, index, len);
+			JInputStream.CheckOpen (closed);
+			if (position == count) {
+				if (len >= buffer.Length) {
+					return pump.Read (buf, index, len);
+				}
+				Fill ();
+			}
+			int n = Math.Min (len, count - position);
+			Array.Copy (buffer, position, buf, index, n);
+			position += n;
+			return n;
+		}
+
+		void Fill ()
+		{
+			position = 0;
+			count = pump.Read (buffer, 0, buffer.Length);
+		}
+
+		public override void Close ()
+		{
+			if (!closed) {
+				closed = true;
+				position = count = 0;
+				pump.Call ("close");
+			}
+		}
+	}
+
+	// A System.IO.TextWriter over a java.io.Writer, with the same
+	// write coalescing as JOutputStream. Characters are handed to
+	// Java as they are, so Encoding is UTF-16.
+	public class JWriter : TextWriter
+	{
+		public const int DefaultBufferSize = 8192;
+
+		readonly JPump pump;
+		readonly char[] buffer;
+		int count;
+		bool closed;
+
+		public JWriter (JObject writer)
+			: this (writer, DefaultBufferSize)
+		{
+		}
+
+		public JWriter (JObject writer, int bufferSize)
+		{
+			pump = new JPump (writer, "java/io/Writer", "write",
+				true, bufferSize);
+			buffer = new char [bufferSize];
+		}
+
+		public override Encoding Encoding {
+			get {
+				return Encoding.Unicode;
+			}
+		}
+
+		public override void Write (char value)
+		{
+			JInputStream.CheckOpen (closed);
+			if (count == buffer.Length) {
+				Drain ();
+			}
+			buffer[count++] = value;
+		}
+
+		public override void Write (char[] buf, int index, int len)
+		{
+			JInputStream.CheckRange (buf, index, len);
+			JInputStream.CheckOpen (closed);
+			if (len > buffer.Length - count) {
+				Drain ();
+				if (len >= buffer.Length) {
+					pump.Write (buf, index, len);
+					return;
+				}
+			}
+			Array.Copy (buf, index, buffer, count, len);
+			count += len;
+		}
+
+		// copied a buffer at a time, without a char[] of the
+		// whole string
+		public override void Write (string value)
+		{
+			if (value == null) {
+				return;
+			}
+			JInputStream.CheckOpen (closed);
+			int index = 0;
+			while (index < value.Length) {
+				if (count == buffer.Length) {
+					Drain ();
+				}
+				int n = Math.Min (value.Length - index,
+					buffer.Length - count);
+				value.CopyTo (index, buffer, count, n);
+				count += n;
+				index += n;
+			}
+		}
+
+		void Drain ()
+		{
+			int n = count;
+			count = 0;
+			pump.Write (buffer, 0, n);
+		}
+
+		public override void Flush ()
+		{
+			JInputStream.CheckOpen (closed);
+			Drain ();
+			pump.Call ("flush");
+		}
+
+		public override void Close ()
+		{
+			if (!closed) {
+				try {
+					Drain ();
+				} finally {
+					closed = true;
+					pump.Call ("close");
+				}
+			}
+		}
+	}
+}
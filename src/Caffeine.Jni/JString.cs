@@ -26,9 +26,25 @@ namespace Caffeine.Jni
 	using System;
 	using System.Runtime.InteropServices;	
 	
+	// Strings are read with one native call into a per-thread buffer
+	// when they fit in BufferSize characters, and in place inside a
+	// critical section otherwise. Short strings can also be interned,
+	// see Intern.
 	public class JString : JObject
 	{
-		public JString (JObject obj) : base (obj.Handle) {
+		public const int BufferSize = 256;
+		public const int InternCapacity = 1024;
+		
+		[ThreadStatic]
+		static char[] buffer;
+		
+		// a direct-mapped cache: a slot is simply overwritten by the
+		// next string with the same hash
+		static readonly string[] interned = new string [InternCapacity];
+		static bool intern;
+		
+		public JString (JObject obj)
+			: base (JReferences.Duplicate (obj.Handle), JRefKind.Global) {
 		}
 		
 		public JString (JConstructor ctr, params object[] args) : base (ctr, args) {
@@ -38,10 +54,11 @@ namespace Caffeine.Jni
 		{
 		}
 		
+		// the characters of str are passed in place, not copied
 		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
-		static extern IntPtr NewString (char[] unicode, int len);
+		static extern IntPtr NewString (string unicode, int len);
 		
-		public JString (string str) : base (NewString (str.ToCharArray(), str.Length))
+		public JString (string str) : base (NewString (str, str.Length))
 		{
 		}
 				
@@ -50,12 +67,92 @@ namespace Caffeine.Jni
 		
 		public string String {
 			get {
-
-				int length = Length;
-				char[] buffer = new char[length];
-				GetStringRegion (Handle, 0, length, buffer);
-				return new String (buffer);
+				return GetString (Handle);
+			}
+		}
+		
+		// whether strings of up to BufferSize characters that are read
+		// from Java share one System.String per value, eg. for map
+		// keys or enum names that come back over and over
+		public static bool Intern {
+			get {
+				return intern;
+			}
+			set {
+				intern = value;
+			}
+		}
+		
+		// the value of a java.lang.String, or null
+		public static string GetString (JObject str)
+		{
+			if (str == null) {
+				return null;
+			}
+			return GetString (str.Handle);
+		}
+		
+		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
+		static extern int GetStringInto (IntPtr str, char[] buf, int capacity);
+		
+		internal static string GetString (IntPtr str)
+		{
+			if (str == IntPtr.Zero) {
+				return null;
+			}
+			char[] buf = buffer;
+			if (buf == null) {
+				buf = buffer = new char [BufferSize];
+			}
+			int len = GetStringInto (str, buf, buf.Length);
+			if (len <= buf.Length) {
+				return NewString (buf, 0, len);
+			}
+			
+			// too long for the buffer, copy it once from the
+			// Java heap straight into the string
+			byte isCopy;
+			IntPtr chars = GetStringCritical (str, out isCopy);
+			if (chars == IntPtr.Zero) {
+				JThrowable.Clear ();
+				throw new OutOfMemoryException ();
+			}
+			try {
+				return Marshal.PtrToStringUni (chars, len);
+			} finally {
+				ReleaseStringCritical (str, chars);
+			}
+		}
+		
+		// the characters of buf from offset, interned if Intern is set
+		internal static string NewString (char[] buf, int offset, int len)
+		{
+			if (intern) {
+				return Interned (buf, offset, len);
 			}
+			return new String (buf, offset, len);
+		}
+		
+		static string Interned (char[] buf, int offset, int len)
+		{
+			int hash = len;
+			for (int i = 0; i < len; i++) {
+				hash = hash * 31 + buf[offset + i];
+			}
+			int slot = (hash & 0x7fffffff) % InternCapacity;
+			string s = interned[slot];
+			if (s != null && s.Length == len) {
+				int i = 0;
+				while (i < len && s[i] == buf[offset + i]) {
+					i++;
+				}
+				if (i == len) {
+					return s;
+				}
+			}
+			s = new String (buf, offset, len);
+			interned[slot] = s;
+			return s;
 		}
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
@@ -88,10 +185,10 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
 		static extern void ReleaseStringChars (IntPtr str, char[] chars);
 		
-		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
-		static extern char[] GetStringCritical (IntPtr str, out bool isCopy);
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr GetStringCritical (IntPtr str, out byte isCopy);
 		
-		[DllImport(JNIEnv.DLL_JAVA, CharSet=CharSet.Unicode)]
-		static extern void ReleaseStringCritical (IntPtr str, char[] cstring);
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void ReleaseStringCritical (IntPtr str, IntPtr cstring);
 	}
 }
@@ -28,7 +28,14 @@ namespace Caffeine.Jni
 	
 	public class JThrowable : JObject
 	{
-		private JThrowable (IntPtr raw) : base (raw)
+		// global even inside a JNIFrame, since the exception is
+		// likely to be caught outside of it
+		private JThrowable (IntPtr raw)
+			: base (JReferences.Promote (raw), JRefKind.Global)
+		{
+		}
+		
+		private JThrowable (IntPtr raw, JRefKind kind) : base (raw, kind)
 		{
 		}
 		
@@ -51,6 +58,20 @@ namespace Caffeine.Jni
 			throw new JNIException(new JThrowable (ret));
 		}
 		
+		// throws an exception that a checked call in the glue has
+		// already cleared, see JMethod
+		internal static void Raise (IntPtr raw)
+		{
+			throw new JNIException (new JThrowable (raw));
+		}
+		
+		// the exception for a global reference to a throwable,
+		// without throwing it, see JBatch
+		internal static JNIException Wrap (IntPtr global)
+		{
+			return new JNIException (new JThrowable (global, JRefKind.Global));
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		public static extern bool ExceptionCheck ();
 		
@@ -74,12 +95,6 @@ namespace Caffeine.Jni
 		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern void FatalError (string msg);
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern int PushLocalFrame (int capacity);
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern IntPtr PopLocalFrame (IntPtr result);
 	}
 	
 	// a .NET exception used by Caffeine to tell the client classes
@@ -24,6 +24,7 @@
 namespace Caffeine.Jni
 {
 	using System;
+	using System.Collections;
 	using System.Runtime.InteropServices;
 	
 	// simulates a union
@@ -31,7 +32,8 @@ namespace Caffeine.Jni
 	[StructLayout (LayoutKind.Explicit)]
 	public struct JValue
 	{
-		[FieldOffset (0)] bool z;
+		// jboolean is stored in b: a bool field would make the
+		// struct non-blittable and be marshalled as a 4-byte BOOL
 		[FieldOffset (0)] byte b;
 		[FieldOffset (0)] ushort c;
 		[FieldOffset (0)] short s;
@@ -42,48 +44,72 @@ namespace Caffeine.Jni
 		[FieldOffset (0)] IntPtr l;
 		
 		public bool JBool {
+			get {
+				return b != 0;
+			}
 			set {
-				z = value;
+				b = value ? (byte) 1 : (byte) 0;
 			}
 		}
 		
 		public byte JByte {
+			get {
+				return b;
+			}
 			set {
 				b = value;
 			}
 		}
 		
 		public char JChar {
+			get {
+				return (char) c;
+			}
 			set {
 				c = value;
 			}
 		}
 		
 		public short JShort {
+			get {
+				return s;
+			}
 			set {
 				s = value;
 			}
 		}
 		
 		public int JInt {
+			get {
+				return i;
+			}
 			set {
 				i = value;
 			}
 		}
 		
 		public long JLong {
+			get {
+				return j;
+			}
 			set {
 				j = value;
 			}
 		}
 		
 		public float JFloat {
+			get {
+				return f;
+			}
 			set {
 				f = value;
 			}
 		}
 		
 		public double JDouble {
+			get {
+				return d;
+			}
 			set {
 				d = value;
 			}
@@ -96,7 +122,22 @@ namespace Caffeine.Jni
 			}
 		}
 		
+		// a reference returned by Java
+		internal IntPtr Reference {
+			get {
+				return l;
+			}
+		}
+		
 		internal static JValue[] Convert (params object[] args)
+		{
+			return Convert (args, null);
+		}
+		
+		// adds the Java objects the arguments are converted to to
+		// owners, if not null, for callers that need the references
+		// after the objects would otherwise be collected, see JBatch
+		internal static JValue[] Convert (object[] args, ArrayList owners)
 		{
 			JValue[] initArgs = JValueInternal.EmptyArgs;
 			if (args != null) {
@@ -124,7 +165,11 @@ namespace Caffeine.Jni
 					} else if (arg is System.Double) {
 						initArgs[i].JDouble = (double) arg;
 					} else {
-						initArgs[i].JObject = Convert (arg);
+						JObject obj = Convert (arg);
+						if (owners != null) {
+							owners.Add (obj);
+						}
+						initArgs[i].JObject = obj;
 					}
 				}
 			}
@@ -150,6 +195,8 @@ namespace Caffeine.Jni
 				array = new JFloatArray ((float[]) arg);
 			} else if (arg is System.Double[]) {
 				array = new JDoubleArray ((double[]) arg);
+			} else if (arg is System.String[]) {
+				array = new JObjectArray ((string[]) arg);
 			} else if (arg is JObjectArray) {
 				array = (JObjectArray) arg;
 			} else if (arg is JObject) {
@@ -163,6 +210,23 @@ namespace Caffeine.Jni
 		}
 	}
 	
+	// a fixed-size argument list that lives on the stack, for calls
+	// with up to Capacity arguments that should not allocate
+	[StructLayout (LayoutKind.Sequential)]
+	public struct JArgs
+	{
+		public const int Capacity = 8;
+
+		public JValue A0;
+		public JValue A1;
+		public JValue A2;
+		public JValue A3;
+		public JValue A4;
+		public JValue A5;
+		public JValue A6;
+		public JValue A7;
+	}
+	
 	sealed class JValueInternal
 	{
 		// for optimization purposes
@@ -31,16 +31,10 @@ namespace Caffeine.Jni
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern IntPtr NewWeakGlobalRef (IntPtr obj);
 
-		public JWeak (JObject obj) : base (NewWeakGlobalRef (obj.Handle))
+		// the weak reference is released by JReferences
+		public JWeak (JObject obj)
+			: base (NewWeakGlobalRef (obj.Handle), JRefKind.Weak)
 		{
 		}
-		
-		[DllImport(JNIEnv.DLL_JAVA)]
-		static extern void DeleteWeakGlobalRef (IntPtr reference);
-
-		~JWeak ()
-		{
-			DeleteWeakGlobalRef (this.Handle);
-		}	
 	}
 }
@@ -104,6 +104,20 @@ namespace Caffeine.Jni
 					"Failed to create Caffeine.Jni.JavaVM: "
 					+ GetError () + " (" + res + ").");
 			}
+			if (config != null && config.attach_daemon) {
+				SetAttachAsDaemon (1);
+			}
+			if (config != null && config.instrument_calls) {
+				JInstrumentation.Enabled = true;
+				if (config.instrument_dump > 0) {
+					JInstrumentation.StartDump (Console.Out,
+						config.instrument_dump);
+				}
+			}
+			if (config != null) {
+				JReferences.SampleRate = config.references_sample;
+			}
+			JReferences.Start ();
 			Console.WriteLine("JavaVM Started.");
 		}
 		
@@ -121,9 +135,43 @@ namespace Caffeine.Jni
 			//DestroyJavaVM ();
 		}
 		
+		// Unloads the JavaVM once every non-daemon Java thread has
+		// ended. No Java object can be used afterwards: the class and
+		// member caches are dropped and pending references released
+		// first.
+		public static void Destroy ()
+		{
+			JClass.ClearCache ();
+			JReferences.Stop ();
+			int r = DestroyJavaVM ();
+			if (r < 0) {
+				throw new SystemException (
+					"Failed to destroy Caffeine.Jni.JavaVM: "
+					+ GetError () + " (" + r + ").");
+			}
+		}
+		
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern int EnsureLocalCapacity (int capacity);
 
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern void SetAttachAsDaemon (int daemon);
+
+		[DllImport(JNIEnv.DLL_JAVA)]
+		static extern IntPtr AttachCurrentThreadAsDaemon ();
+
+		// Threads are attached on their first call into Java and
+		// detached by the glue when they end, so neither method is
+		// needed in general. AttachAsDaemon lets a single thread
+		// opt in to daemon status without setting attach.daemon.
+		public static void AttachAsDaemon ()
+		{
+			if (AttachCurrentThreadAsDaemon () == IntPtr.Zero) {
+				throw new SystemException (
+					"Failed to attach thread: " + GetError ());
+			}
+		}
+
 		[DllImport(JNIEnv.DLL_JAVA)]
 		static extern int DetachCurrentThread ();
 		
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2003 Pekka Enberg <penberg@iki.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.olympum.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Java class file reader.
+ *
+ * Reads the parts of a class file the API generator needs (constant
+ * pool, fields, methods and inner classes) straight from its bytes.
+ * No class is ever defined or initialized, so classes whose
+ * dependencies are missing can still be described.
+ */
+class ClassFile {
+	private final static int MAGIC = 0xCAFEBABE;
+
+	private final static int CONSTANT_Utf8               = 1;
+	private final static int CONSTANT_Integer            = 3;
+	private final static int CONSTANT_Float              = 4;
+	private final static int CONSTANT_Long               = 5;
+	private final static int CONSTANT_Double             = 6;
+	private final static int CONSTANT_Class              = 7;
+	private final static int CONSTANT_String             = 8;
+	private final static int CONSTANT_Fieldref           = 9;
+	private final static int CONSTANT_Methodref          = 10;
+	private final static int CONSTANT_InterfaceMethodref = 11;
+	private final static int CONSTANT_NameAndType        = 12;
+	private final static int CONSTANT_MethodHandle       = 15;
+	private final static int CONSTANT_MethodType         = 16;
+	private final static int CONSTANT_Dynamic            = 17;
+	private final static int CONSTANT_InvokeDynamic      = 18;
+	private final static int CONSTANT_Module             = 19;
+	private final static int CONSTANT_Package            = 20;
+
+	/** ACC_SUPER shares its bit with ACC_SYNCHRONIZED.  */
+	private final static int ACC_SUPER = 0x0020;
+	/** Marks module-info, which reflection does not load.  */
+	private final static int ACC_MODULE = 0x8000;
+	/** The flags Class.getModifiers() reports.  */
+	private final static int ACC_WRITTEN_FLAGS = 0x7FFF;
+
+	/** A field or a method.  */
+	static class Member {
+		public int accessFlags;
+		public String name;
+		public String descriptor;
+		/** Value of the ConstantValue attribute, if any.  */
+		public Object constantValue;
+		/** Binary names of the Exceptions attribute.  */
+		public String[] exceptions = new String[0];
+	}
+
+	/** An entry of the InnerClasses attribute.  */
+	static class InnerClass {
+		public String innerClass;
+		public String outerClass;
+		public String simpleName;
+		public int accessFlags;
+	}
+
+	/** Binary name, for example <code>java.util.Map$Entry</code>.  */
+	public String name;
+	public int accessFlags;
+	public String superName;
+	public String[] interfaces;
+	public Member[] fields;
+	public Member[] methods;
+	public InnerClass[] innerClasses = new InnerClass[0];
+
+	private Object[] constantPool;
+
+	public ClassFile(byte[] bytes) throws IOException {
+		DataInputStream in =
+			new DataInputStream(new ByteArrayInputStream(bytes));
+		/*
+			ClassFile {
+				u4 magic;
+				u2 minor_version;
+				u2 major_version;
+				u2 constant_pool_count;
+				cp_info constant_pool[constant_pool_count-1];
+				u2 access_flags;
+				u2 this_class;
+				u2 super_class;
+				u2 interfaces_count;
+				u2 interfaces[interfaces_count];
+				u2 fields_count;
+				field_info fields[fields_count];
+				u2 methods_count;
+				method_info methods[methods_count];
+				u2 attributes_count;
+				attribute_info attributes[attributes_count];
+			}
+		*/
+		if (in.readInt() != MAGIC)
+			throw new ClassFormatError("Bad magic in class");
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+		readConstantPool(in);
+		accessFlags = in.readUnsignedShort();
+		if ((accessFlags & ACC_MODULE) != 0)
+			throw new ClassFormatError("Module descriptor, not a class");
+		name = getClassName(in.readUnsignedShort());
+		superName = getClassName(in.readUnsignedShort());
+		interfaces = new String[in.readUnsignedShort()];
+		for (int i = 0; i < interfaces.length; i++)
+			interfaces[i] = getClassName(in.readUnsignedShort());
+		fields = readMembers(in);
+		methods = readMembers(in);
+		int attributes = in.readUnsignedShort();
+		for (int i = 0; i < attributes; i++) {
+			String attribute = getUtf8(in.readUnsignedShort());
+			int length = in.readInt();
+			if ("InnerClasses".equals(attribute))
+				readInnerClasses(in);
+			else
+				in.skipBytes(length);
+		}
+		/* The pool is only needed while parsing.  */
+		constantPool = null;
+	}
+
+	private void readConstantPool(DataInputStream in) throws IOException {
+		int count = in.readUnsignedShort();
+		constantPool = new Object[count];
+		for (int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case CONSTANT_Utf8:
+				constantPool[i] = in.readUTF();
+				break;
+			case CONSTANT_Integer:
+				constantPool[i] = Integer.valueOf(in.readInt());
+				break;
+			case CONSTANT_Float:
+				constantPool[i] = Float.valueOf(in.readFloat());
+				break;
+			case CONSTANT_Long:
+				/* Longs and doubles take two slots.  */
+				constantPool[i++] = Long.valueOf(in.readLong());
+				break;
+			case CONSTANT_Double:
+				constantPool[i++] = Double.valueOf(in.readDouble());
+				break;
+			case CONSTANT_Class:
+				/* Resolved lazily: the name may come later.  */
+				constantPool[i] = new int[] { in.readUnsignedShort() };
+				break;
+			case CONSTANT_String:
+			case CONSTANT_MethodType:
+			case CONSTANT_Module:
+			case CONSTANT_Package:
+				in.readUnsignedShort();
+				break;
+			case CONSTANT_Fieldref:
+			case CONSTANT_Methodref:
+			case CONSTANT_InterfaceMethodref:
+			case CONSTANT_NameAndType:
+			case CONSTANT_Dynamic:
+			case CONSTANT_InvokeDynamic:
+				in.readInt();
+				break;
+			case CONSTANT_MethodHandle:
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			default:
+				throw new ClassFormatError("Bad constant pool tag " + tag);
+			}
+		}
+	}
+
+	private String getUtf8(int index) {
+		return (String) constantPool[index];
+	}
+
+	private String getClassName(int index) {
+		if (index == 0)
+			return null;
+		int[] nameIndex = (int[]) constantPool[index];
+		return getUtf8(nameIndex[0]).replace('/', '.');
+	}
+
+	private Member[] readMembers(DataInputStream in) throws IOException {
+		Member[] members = new Member[in.readUnsignedShort()];
+		for (int i = 0; i < members.length; i++) {
+			Member m = new Member();
+			m.accessFlags = in.readUnsignedShort();
+			m.name = getUtf8(in.readUnsignedShort());
+			m.descriptor = getUtf8(in.readUnsignedShort());
+			int attributes = in.readUnsignedShort();
+			for (int j = 0; j < attributes; j++) {
+				String attribute = getUtf8(in.readUnsignedShort());
+				int length = in.readInt();
+				if ("ConstantValue".equals(attribute)) {
+					m.constantValue = constantPool[in.readUnsignedShort()];
+				} else if ("Exceptions".equals(attribute)) {
+					m.exceptions = new String[in.readUnsignedShort()];
+					for (int k = 0; k < m.exceptions.length; k++)
+						m.exceptions[k] = getClassName(in.readUnsignedShort());
+				} else {
+					in.skipBytes(length);
+				}
+			}
+			members[i] = m;
+		}
+		return members;
+	}
+
+	private void readInnerClasses(DataInputStream in) throws IOException {
+		innerClasses = new InnerClass[in.readUnsignedShort()];
+		for (int i = 0; i < innerClasses.length; i++) {
+			InnerClass c = new InnerClass();
+			c.innerClass = getClassName(in.readUnsignedShort());
+			c.outerClass = getClassName(in.readUnsignedShort());
+			int nameIndex = in.readUnsignedShort();
+			c.simpleName = nameIndex != 0 ? getUtf8(nameIndex) : null;
+			c.accessFlags = in.readUnsignedShort();
+			innerClasses[i] = c;
+		}
+	}
+
+	/**
+	 * Returns the modifiers as reported by Class.getModifiers():
+	 * member classes use the flags of their InnerClasses entry.
+	 */
+	public int getModifiers() {
+		int flags = accessFlags;
+		for (int i = 0; i < innerClasses.length; i++) {
+			if (name.equals(innerClasses[i].innerClass)) {
+				flags = innerClasses[i].accessFlags;
+				break;
+			}
+		}
+		return flags & ~ACC_SUPER & ACC_WRITTEN_FLAGS;
+	}
+
+	/**
+	 * Returns the binary names of the member classes, in the order
+	 * Class.getDeclaredClasses() reports them.
+	 */
+	public String[] getDeclaredClasses() {
+		ArrayList ret = new ArrayList();
+		for (int i = 0; i < innerClasses.length; i++) {
+			InnerClass c = innerClasses[i];
+			if (name.equals(c.outerClass) && c.simpleName != null)
+				ret.add(c.innerClass);
+		}
+		return (String[]) ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * Class file lookup. Classes are searched in the jar first, so
+	 * the jar is described as it is rather than as the running JVM
+	 * sees it, and then in the generator's own class path. Parsed
+	 * classes are kept for the whole run and may be shared between
+	 * threads.
+	 */
+	static class Repository {
+		private final static Object MISSING = new Object();
+
+		private final ZipFile jar;
+		private final ConcurrentHashMap classes;
+		private final Set dependencies;
+
+		public Repository(ZipFile jar) {
+			this(jar, new ConcurrentHashMap(), null);
+		}
+
+		private Repository(ZipFile jar, ConcurrentHashMap classes,
+				   Set dependencies) {
+			this.jar = jar;
+			this.classes = classes;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Returns a view of this repository that adds the name of
+		 * every class looked up through it to
+		 * <code>dependencies</code>.
+		 */
+		public Repository recording(Set dependencies) {
+			return new Repository(jar, classes, dependencies);
+		}
+
+		/**
+		 * Returns the class named <code>name</code>, or
+		 * <code>null</code> if it cannot be found.
+		 */
+		public ClassFile lookup(String name) {
+			if (dependencies != null)
+				dependencies.add(name);
+			Object ret = classes.get(name);
+			if (ret == null) {
+				ret = read(name);
+				if (ret == null)
+					ret = MISSING;
+				classes.putIfAbsent(name, ret);
+			}
+			return ret != MISSING ? (ClassFile) ret : null;
+		}
+
+		/**
+		 * Returns the CRC and size of the jar entry of a class, or
+		 * -1 for both if the class does not come from the jar.
+		 */
+		public long[] getFingerprint(String name) {
+			ZipEntry entry = jar.getEntry(name.replace('.', '/') + ".class");
+			if (entry == null)
+				return new long[] { -1, -1 };
+			return new long[] { entry.getCrc(), entry.getSize() };
+		}
+
+		private ClassFile read(String name) {
+			String path = name.replace('.', '/') + ".class";
+			try {
+				InputStream in = null;
+				ZipEntry entry = jar.getEntry(path);
+				if (entry != null)
+					in = jar.getInputStream(entry);
+				else
+					in = ClassLoader.getSystemResourceAsStream(path);
+				if (in == null)
+					return null;
+				try {
+					return new ClassFile(readFully(in));
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static byte[] readFully(InputStream in) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		}
+	}
+}
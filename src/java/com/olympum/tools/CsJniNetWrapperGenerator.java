@@ -23,21 +23,42 @@
  */
 package com.olympum.tools;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
 
 import org.dom4j.Document;
 import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
 import org.dom4j.io.SAXReader;
 
 public class CsJniNetWrapperGenerator {
 	private String getCLRType (String javaType) {
+		/* See JObjectArray.GetStrings.  */
+		if (javaType.equals(STRING_ARRAY))
+			return "string[]";
+
 		int literalLengh = javaType.indexOf ('[');
 		String literal = javaType; 
 		String arrayLiteral = "";
@@ -59,14 +80,17 @@ public class CsJniNetWrapperGenerator {
 	private void emitClassBase(PrintStream out, Element clazz) {
 		String parent = clazz.attributeValue("parent");
 		Element interfacesRoot = clazz.element("implements");
+		/* Every other collection inherits it.  */
+		boolean enumerable =
+			COLLECTION.equals(clazz.attributeValue("name"));
 
-		if (parent == null && interfacesRoot == null)
+		if (parent == null && interfacesRoot == null && !enumerable)
 			return;
 
 		out.print(" : ");
 		if (parent != null) {
 			out.print(normalize(parent));
-			if (interfacesRoot != null)
+			if (interfacesRoot != null || enumerable)
 				out.print(", ");
 		}
 		if (interfacesRoot != null) {
@@ -74,10 +98,166 @@ public class CsJniNetWrapperGenerator {
 			while (interfaces.hasNext()) {
 				Element e = (Element) interfaces.next();
 				out.print(normalize(e.attributeValue("name")));
-				if (interfaces.hasNext())
+				if (interfaces.hasNext() || enumerable)
 					out.print(", ");
 			}
 		}
+		if (enumerable)
+			out.print("DotNetSystem.Collections.IEnumerable");
+	}
+
+	private final static String COLLECTION = "java.util.Collection";
+
+	/**
+	 * Returns whether the proxy of the class or interface
+	 * <code>type</code> implements IEnumerable, which all
+	 * java.util.Collections do.
+	 */
+	private boolean isEnumerable(String type) {
+		return type != null && collectionTypes.contains(type);
+	}
+
+	/**
+	 * Implements IEnumerable with JEnumerable, in the first class of a
+	 * hierarchy that needs it.
+	 */
+	private void emitEnumerator(PrintStream out) {
+		emitIndented(out, "public DotNetSystem.Collections.IEnumerator GetEnumerator() {", 2);
+		emitIndented(out, "return JEnumerable.Collection(this).GetEnumerator();", 3);
+		emitIndented(out, "}", 2);
+		out.println();
+	}
+
+	/** The classes that are read by value, see setValueTypes.  */
+	private final HashSet valueTypes = new HashSet();
+
+	/** Fingerprint of valueTypes, for the cache.  */
+	private long valuesFingerprint;
+
+	/**
+	 * Lists the value-like classes, one per line of <code>file</code>,
+	 * whose proxies also get a JNIValue struct with the readable
+	 * properties of the class, and methods that read them for one or
+	 * many objects in a single native call. Lines starting with # are
+	 * ignored.
+	 */
+	public void setValueTypes(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#"))
+					valueTypes.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		valuesFingerprint = crc(new TreeSet(valueTypes).toString());
+	}
+
+	/**
+	 * Returns the name of the property read by <code>method</code>, or
+	 * null if it is not a getter JNIValue holds: an instance method
+	 * without parameters named getX, or isX for a boolean, that returns
+	 * a primitive or a String.
+	 */
+	private String getValueProperty(Element method) {
+		if (isMethodStatic(method) || method.element("parameters") != null)
+			return null;
+		String type = method.element("return-type").attributeValue("type");
+		if (type.equals("void")
+		    || (!type.equals("java.lang.String")
+			&& !JVM_BUILT_IN_TYPE_SIGNATURES.containsKey(type)))
+			return null;
+		String name = method.attributeValue("name");
+		int prefix = 0;
+		if (name.startsWith("get"))
+			prefix = 3;
+		else if (name.startsWith("is") && type.equals("boolean"))
+			prefix = 2;
+		if (prefix == 0 || name.length() == prefix
+		    || !Character.isUpperCase(name.charAt(prefix)))
+			return null;
+		return name.substring(prefix);
+	}
+
+	/**
+	 * Emits the JNIValue struct of a value-like class, and ReadJNIValue
+	 * and ReadJNIValues, which fill it for one or many objects with a
+	 * JBatch of all their getters. Strings are copied out together
+	 * with JBatch.GetStrings.
+	 */
+	private void emitValueReader(PrintStream out, Element clazz,
+				     boolean hides) {
+		String modifier = hides ? "new " : "";
+		List methods = clazz.elements("method");
+		List getters = new ArrayList();
+		List properties = new ArrayList();
+		for (int i = 0; i < methods.size(); i++) {
+			Element e = (Element) methods.get(i);
+			String property = getValueProperty(e);
+			if (property != null) {
+				getters.add(Integer.valueOf(i));
+				properties.add(property);
+			}
+		}
+		int n = getters.size();
+
+		emitIndented(out, "public " + modifier + "struct JNIValue {", 2);
+		for (int k = 0; k < n; k++) {
+			Element e = (Element) methods.get(((Integer) getters.get(k)).intValue());
+			String type = e.element("return-type").attributeValue("type");
+			emitIndented(out, "public "
+				     + (type.equals("java.lang.String") ? "string" : getCLRType(type))
+				     + " " + properties.get(k) + ";", 3);
+		}
+		emitIndented(out, "}", 2);
+		out.println();
+
+		emitIndented(out, "public " + modifier + "JNIValue ReadJNIValue() {", 2);
+		emitIndented(out, "return ReadJNIValues(new JObject[] { this })[0];", 3);
+		emitIndented(out, "}", 2);
+		out.println();
+
+		emitIndented(out, "public static " + modifier
+			     + "JNIValue[] ReadJNIValues(JObject[] objects) {", 2);
+		for (int k = 0; k < n; k++) {
+			int i = ((Integer) getters.get(k)).intValue();
+			emitIndented(out, "JMethod m" + k + " = "
+				     + methodReference((Element) methods.get(i), i) + ";", 3);
+		}
+		emitIndented(out, "JBatch batch = new JBatch(objects.Length * "
+			     + n + " + 1);", 3);
+		emitIndented(out, "foreach (JObject o in objects) {", 3);
+		for (int k = 0; k < n; k++)
+			emitIndented(out, "batch.Add(m" + k + ", o);", 4);
+		emitIndented(out, "}", 3);
+		emitIndented(out, "batch.Execute();", 3);
+		emitIndented(out, "batch.CheckAndThrow();", 3);
+		emitIndented(out, "JNIValue[] values = new JNIValue[objects.Length];", 3);
+		for (int k = 0; k < n; k++) {
+			Element e = (Element) methods.get(((Integer) getters.get(k)).intValue());
+			if (e.element("return-type").attributeValue("type").equals("java.lang.String"))
+				emitIndented(out, "string[] strings" + k
+					     + " = batch.GetStrings(" + k + ", " + n
+					     + ", values.Length);", 3);
+		}
+		emitIndented(out, "for (int i = 0; i < values.Length; i++) {", 3);
+		for (int k = 0; k < n; k++) {
+			Element e = (Element) methods.get(((Integer) getters.get(k)).intValue());
+			String type = e.element("return-type").attributeValue("type");
+			String value = type.equals("java.lang.String")
+				? "strings" + k + "[i]"
+				: "batch.Get" + getApiType(getCLRType(type))
+				  + "(" + n + " * i + " + k + ")";
+			emitIndented(out, "values[i]." + properties.get(k)
+				     + " = " + value + ";", 4);
+		}
+		emitIndented(out, "}", 3);
+		emitIndented(out, "return values;", 3);
+		emitIndented(out, "}", 2);
+		out.println();
 	}
 
 	private final static HashMap JVM_BUILT_IN_TYPE_SIGNATURES = new HashMap();
@@ -101,19 +281,49 @@ public class CsJniNetWrapperGenerator {
 		return arrayType.substring(0, arrayType.length() - 2);
 	}
 
+	private final static String STRING_ARRAY = "java.lang.String[]";
+
+	/**
+	 * Returns whether the Java <code>type</code> is a one-dimensional
+	 * array of objects, which is passed with the bulk methods of
+	 * JObjectArray.
+	 */
+	private boolean isObjectArray(String type) {
+		if (!isTypeArray(type))
+			return false;
+		String base = getBaseType(type);
+		return !isTypeArray(base)
+		       && !JVM_BUILT_IN_TYPE_SIGNATURES.containsKey(base);
+	}
+
+	/**
+	 * Returns the C# expression that passes parameter number
+	 * <code>index</code> in a params object[]: Java arrays of objects
+	 * are created in a single call, the others are converted by
+	 * JValue.Convert.
+	 */
+	private String argumentValue(Element parameter, int index) {
+		String type = parameter.attributeValue("type");
+		String arg = "arg" + index;
+		if (type.equals(STRING_ARRAY))
+			return "JObjectArray.From(" + arg + ")";
+		if (isObjectArray(type))
+			return "JObjectArray.From(" + arg + ", JClass.ForName(\""
+			       + getBaseType(type).replace('.', '/') + "\"))";
+		return arg;
+	}
+
 	private String getTypeSignature(String type) {
-		boolean isArray = false;
-		if (isTypeArray(type)) {
+		String dimensions = "";
+		while (isTypeArray(type)) {
 			type = getBaseType(type);
-			isArray = true;
+			dimensions += "[";
 		}
 		String ret = (String) JVM_BUILT_IN_TYPE_SIGNATURES.get(type);
 		if (ret == null) {
 			ret = "L" + type + ";";
 		}
-		if (isArray)
-			ret = "[" + ret;
-		return ret.replace('.','/');
+		return (dimensions + ret).replace('.','/');
 	}
 
 	private String parameterSignatures(Element method) {
@@ -190,12 +400,119 @@ public class CsJniNetWrapperGenerator {
 	}
 	
 	/**
-	 * Marks whether to generate the java.lang.String to System.String
-	 * implicit conversation operators.
+	 * Returns whether to generate the java.lang.String to System.String
+	 * implicit conversation operators for <code>clazz</code>.
+	 */
+	private boolean hasStringConversions(Element clazz) {
+		if (!"java.lang.String".equals(clazz.attributeValue("name")))
+			return false;
+		List ctors = clazz.elements("constructor");
+		for (int i = 0; i < ctors.size(); i++) {
+			Element e = (Element) ctors.get(i);
+			if ("([C)V".equals(getCtorSignature(e)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Whether proxies look up their constructor and method IDs on first
+	 * use through a JMemberTable instead of all at once in a static
+	 * constructor.
 	 */
-	private static int ctrIndex = -1;
+	private boolean lazyIds = false;
+
+	public void setLazyIds(boolean lazyIds) {
+		this.lazyIds = lazyIds;
+	}
+
+	private void emitClassField(PrintStream out) {
+		if (!lazyIds)
+			emitIndented(out, "readonly static JClass clazz;", 2);
+	}
+
+	/**
+	 * Emits the member table of <code>clazz</code>: its constructors,
+	 * methods and fields, in document order.
+	 */
+	private void emitMemberTable(PrintStream out, Element clazz) {
+		String qualifiedName = clazz.attributeValue("name").replace('.','/');
+		emitIndented(out, "readonly static JMemberTable jniMembers = "
+			     + "new JMemberTable (\"" + qualifiedName
+			     + "\", new string[] {", 2);
+		List ctors = clazz.elements("constructor");
+		for (int i = 0; i < ctors.size(); i++) {
+			Element e = (Element) ctors.get(i);
+			emitIndented(out, "\"<init>" + getCtorSignature(e) + "\",", 3);
+		}
+		List methods = clazz.elements("method");
+		for (int i = 0; i < methods.size(); i++) {
+			Element e = (Element) methods.get(i);
+			emitIndented(out, "\""
+				     + (isMethodStatic(e) ? "static " : "")
+				     + e.attributeValue("name")
+				     + getMethodSignature(e) + "\",", 3);
+		}
+		List fields = clazz.elements("field");
+		for (int i = 0; i < fields.size(); i++) {
+			Element e = (Element) fields.get(i);
+			emitIndented(out, "\""
+				     + (e.attributeValue("static") != null ? "static " : "")
+				     + e.attributeValue("name") + " "
+				     + getTypeSignature(e.attributeValue("type")) + "\",", 3);
+		}
+		emitIndented(out, "});", 2);
+		out.println();
+	}
+
+	private String ctorReference(int index) {
+		if (lazyIds)
+			return "jniMembers.Constructor(" + index + ")";
+		return "ctor" + index;
+	}
+
+	private String methodReference(Element method, int methodIndex) {
+		if (lazyIds) {
+			Element clazz = method.getParent();
+			int index = clazz.elements("constructor").size() + methodIndex;
+			return "jniMembers.Method(" + index + ")";
+		}
+		return method.attributeValue("name") + "_mid" + methodIndex;
+	}
+
+	private String fieldReference(Element field, int fieldIndex) {
+		if (lazyIds) {
+			Element clazz = field.getParent();
+			int index = clazz.elements("constructor").size()
+				+ clazz.elements("method").size() + fieldIndex;
+			return "jniMembers.Field(" + index + ")";
+		}
+		return field.attributeValue("name") + "_fid" + fieldIndex;
+	}
+
+	/**
+	 * Returns whether the proxy emitted for <code>clazz</code> holds
+	 * its field properties: a class does, and so does the
+	 * implementation class of an interface, which has nowhere else to
+	 * put them.
+	 */
+	private boolean hasFieldProperties(Element clazz, boolean isImplementation) {
+		int modifiers = Integer.parseInt(clazz.attributeValue("modifiers"));
+		return isImplementation == Modifier.isInterface(modifiers);
+	}
+
+	/** Multi-dimensional arrays have no property.  */
+	private boolean isFieldSupported(Element field) {
+		String type = field.attributeValue("type");
+		return !isTypeArray(type) || !isTypeArray(getBaseType(type));
+	}
 
 	private void emitCtorAndMethodIds(PrintStream out, Element clazz, String className, boolean isImplementation) {
+		if (lazyIds) {
+			emitMemberTable(out, clazz);
+			return;
+		}
+
    		List ctors = clazz.elements("constructor");
 		if (!isImplementation) {
 			for (int i = 0; i < ctors.size(); i++) {
@@ -215,6 +532,16 @@ public class CsJniNetWrapperGenerator {
     				    i + ";");
 			}
 		}
+
+		List fields = hasFieldProperties(clazz, isImplementation)
+			? clazz.elements("field") : Collections.EMPTY_LIST;
+		for (int i = 0; i < fields.size(); i++) {
+			Element e = (Element) fields.get(i);
+			if (!isFieldSupported(e))
+				continue;
+			emitIndented(out, "readonly static JField "
+				     + fieldReference(e, i) + ";", 2);
+		}
 		out.println();
 		
 		emitIndented(out, "static " +
@@ -233,13 +560,6 @@ public class CsJniNetWrapperGenerator {
 					     + " = clazz.GetConstructor("
 					     + "\"" + ctrSignature + "\");",
 					     3);
-				/*
-				* Force the creation of the implicit operators between
-				* java.lang.String and System.String
-				*/
-				if ("java/lang/String".equals(qualifiedName) &&
-					"([C)V".equals(ctrSignature))
-					ctrIndex = i;
 			}
 		}
 		
@@ -261,6 +581,20 @@ public class CsJniNetWrapperGenerator {
 				     + "\");",
 				     3);
 		}
+		for (int i = 0; i < fields.size(); i++) {
+			Element e = (Element) fields.get(i);
+			if (!isFieldSupported(e))
+				continue;
+			String callString = e.attributeValue("static") != null
+				? "GetStaticField" : "GetField";
+			emitIndented(out,
+				     fieldReference(e, i)
+				     + " = clazz." + callString + "(\""
+				     + e.attributeValue("name") + "\", \""
+				     + getTypeSignature(e.attributeValue("type"))
+				     + "\");",
+				     3);
+		}
 		emitIndented(out, "}", 2);
 		out.println();
 	}
@@ -299,6 +633,65 @@ public class CsJniNetWrapperGenerator {
 		API_TYPES.put("void",    "Void");
 	}
 
+	/** JValue setters for built-ins, eg. <code>JInt</code>.  */
+	private final static HashMap JVALUE_SETTERS = new HashMap();
+	static {
+		JVALUE_SETTERS.put("bool",    "JBool");
+		JVALUE_SETTERS.put("sbyte",   "JByte");
+		JVALUE_SETTERS.put("char",    "JChar");
+		JVALUE_SETTERS.put("double",  "JDouble");
+		JVALUE_SETTERS.put("float",   "JFloat");
+		JVALUE_SETTERS.put("int",     "JInt");
+		JVALUE_SETTERS.put("long",    "JLong");
+		JVALUE_SETTERS.put("short",   "JShort");
+	}
+
+	/** Capacity of Caffeine.Jni.JArgs.  */
+	private final static int JARGS_CAPACITY = 8;
+
+	private List getParameters(Element method) {
+		if (method.element("parameters") == null)
+			return Collections.EMPTY_LIST;
+		return method.element("parameters").elements("parameter");
+	}
+
+	/**
+	 * Returns whether the arguments of <code>method</code> are passed
+	 * in a JArgs on the stack instead of a boxed object[]. Arrays still
+	 * go through JValue.Convert, which copies them into Java arrays.
+	 */
+	private boolean usesArgumentPack(Element method) {
+		List parameters = getParameters(method);
+		if (parameters.isEmpty() || parameters.size() > JARGS_CAPACITY)
+			return false;
+		for (int i = 0; i < parameters.size(); i++) {
+			Element e = (Element) parameters.get(i);
+			if (isTypeArray(e.attributeValue("type")))
+				return false;
+		}
+		return true;
+	}
+
+	private void emitArgumentPack(PrintStream out, Element method) {
+		emitIndented(out, "JArgs args = new JArgs ();", 3);
+		List parameters = getParameters(method);
+		for (int i = 0; i < parameters.size(); i++) {
+			Element e = (Element) parameters.get(i);
+			String type = getCLRType(e.attributeValue("type"));
+			String setter = (String) JVALUE_SETTERS.get(type);
+			String value = "arg" + i;
+			if (setter == null) {
+				/* Interface proxies need the cast.  */
+				setter = "JObject";
+				value = "(JObject) " + value;
+			} else if (type.equals("sbyte")) {
+				value = "(byte) " + value;
+			}
+			emitIndented(out, "args.A" + i + "." + setter
+				     + " = " + value + ";", 3);
+		}
+	}
+
 	/**
 	 * Returns a JNI.NET wrapper call code snippet.
 	 *
@@ -325,7 +718,7 @@ public class CsJniNetWrapperGenerator {
 		if (useCopyCtor) {
 			call.append("new " + returnType + "(");
 		}
-		call.append(method.attributeValue("name") + "_mid" + methodIndex + ".Call");
+		call.append(methodReference(method, methodIndex) + ".Call");
 		if (!isTypeArray(returnType))
 			call.append(apiType);
 		else
@@ -335,13 +728,14 @@ public class CsJniNetWrapperGenerator {
 		
 		call.append((!isMethodStatic (method) ? "this" : "null"));
 
-		int numParams = 0;
-		if (method.element("parameters") != null) {
-			numParams = method.element("parameters").
-					elements("parameter").size();
-		}
-		for (int i = 0; i < numParams; i++) {
-			call.append(", arg" + i);
+		if (usesArgumentPack(method)) {
+			call.append(", ref args");
+		} else {
+			List parameters = getParameters(method);
+			for (int i = 0; i < parameters.size(); i++) {
+				call.append(", " + argumentValue(
+					(Element) parameters.get(i), i));
+			}
 		}
 		call.append(")");
 
@@ -380,7 +774,8 @@ public class CsJniNetWrapperGenerator {
 	}
 
 	private void emitMethodWrapperBody(PrintStream out, Element method, int methodIndex) {
-		String returnType = getCLRType(method.element("return-type").attributeValue("type"));
+		String javaReturnType = method.element("return-type").attributeValue("type");
+		String returnType = getCLRType(javaReturnType);
 		String apiType = getApiType(returnType);
 		
 		boolean nonInstantiable =
@@ -389,6 +784,8 @@ public class CsJniNetWrapperGenerator {
 		if (nonInstantiable)
 			returnType = interfaceToImplClass(returnType);
 
+		if (usesArgumentPack(method))
+			emitArgumentPack(out, method);
 		emitIndented(out,
 			     wrapperCall(method, methodIndex, returnType,
 			     		 apiType),
@@ -397,6 +794,17 @@ public class CsJniNetWrapperGenerator {
 		if (!returnType.equals("void")) {
 			if (!isTypeArray(returnType)) {
 				emitIndented(out, "return ret;", 3);
+			} else if (javaReturnType.equals(STRING_ARRAY)) {
+				emitIndented(out, "return new JObjectArray(ret).GetStrings();", 3);
+			} else if (isObjectArray(javaReturnType)) {
+				/* One native call for all the elements.  */
+				String elementType = getBaseType(returnType);
+				emitIndented(out, "JObject[] elements = (JObject[]) new JObjectArray(ret).Elements;", 3);
+				emitIndented(out, returnType + " array = new " + elementType + "[elements.Length];", 3);
+				emitIndented(out, "for (int i = 0; i < array.Length; i++)", 3);
+				emitIndented(out, "if (elements[i] != null)", 4);
+				emitIndented(out, "array[i] = new " + elementType + "(elements[i]);", 5);
+				emitIndented(out, "return array;", 3);
 			} else {
 				String arrayType = "J" + apiType + "Array";
 				emitIndented(out, arrayType + " array = new " + arrayType + "(ret);", 3);
@@ -405,15 +813,172 @@ public class CsJniNetWrapperGenerator {
 		}
 	}
 
+	/** JField accessors for built-ins, eg. <code>Int</code>.  */
+	private final static HashMap FIELD_ACCESSORS = new HashMap();
+	static {
+		FIELD_ACCESSORS.put("bool",    "Bool");
+		FIELD_ACCESSORS.put("sbyte",   "Byte");
+		FIELD_ACCESSORS.put("char",    "Char");
+		FIELD_ACCESSORS.put("double",  "Double");
+		FIELD_ACCESSORS.put("float",   "Float");
+		FIELD_ACCESSORS.put("int",     "Int");
+		FIELD_ACCESSORS.put("long",    "Long");
+		FIELD_ACCESSORS.put("short",   "Short");
+	}
+
+	/**
+	 * Emits a property for a public field, which reads and writes it
+	 * with the typed accessors of a JField looked up once, like the
+	 * method IDs. Final fields are read-only.
+	 */
+	private void emitFieldProperty(PrintStream out, PrintStream log,
+				       String type, HashSet names,
+				       Element field, int fieldIndex) {
+		String javaType = field.attributeValue("type");
+		String clrType = getCLRType(javaType);
+		boolean isStatic = field.attributeValue("static") != null;
+		boolean isFinal = field.attributeValue("final") != null;
+		String fid = fieldReference(field, fieldIndex);
+		String obj = isStatic ? "null" : "this";
+
+		if (!isFieldSupported(field)) {
+			log.println(type + ": field `" + field.attributeValue("name")
+				    + "' skipped, multi-dimensional arrays are "
+				    + "not supported.");
+			return;
+		}
+
+		String name = normalize(field.attributeValue("name"));
+		if (names.contains(name)) {
+			// member names must be unique within their type, and
+			// cannot be the same as the type name
+			String renamed = name + "_";
+			while (names.contains(renamed))
+				renamed += "_";
+			log.println(
+				type + ": field `" + name
+				+ "' renamed to `"
+				+ renamed + "' because of a member or type "
+				+ "of the same name.");
+			name = renamed;
+		}
+		names.add(name);
+
+		emitIndented(out, "public " + (isStatic ? "static " : "")
+			     + clrType + " " + name + " {", 2);
+		emitIndented(out, "get {", 3);
+		String accessor = (String) FIELD_ACCESSORS.get(clrType);
+		if (accessor != null) {
+			emitIndented(out, "return "
+				     + (clrType.equals("sbyte") ? "(sbyte) " : "")
+				     + fid + ".Get" + accessor + "(" + obj + ");", 4);
+		} else {
+			emitIndented(out, "JObject o = " + fid + ".GetObject("
+				     + obj + ");", 4);
+			emitIndented(out, "if (o == null)", 4);
+			emitIndented(out, "return null;", 5);
+			if (javaType.equals(STRING_ARRAY)) {
+				emitIndented(out, "return new JObjectArray(o).GetStrings();", 4);
+			} else if (isObjectArray(javaType)) {
+				String elementType = getBaseType(clrType);
+				if (field.attributeValue("non-instantiable") != null)
+					elementType = interfaceToImplClass(elementType);
+				emitIndented(out, "JObject[] elements = (JObject[]) new JObjectArray(o).Elements;", 4);
+				emitIndented(out, clrType + " array = new " + getBaseType(clrType) + "[elements.Length];", 4);
+				emitIndented(out, "for (int i = 0; i < array.Length; i++)", 4);
+				emitIndented(out, "if (elements[i] != null)", 5);
+				emitIndented(out, "array[i] = new " + elementType + "(elements[i]);", 6);
+				emitIndented(out, "return array;", 4);
+			} else if (isTypeArray(javaType)) {
+				emitIndented(out, "return (" + clrType + ") new J"
+					     + getApiType(clrType) + "Array(o).Elements;", 4);
+			} else {
+				String implType = field.attributeValue("non-instantiable") != null
+					? interfaceToImplClass(clrType) : clrType;
+				emitIndented(out, "return new " + implType + "(o);", 4);
+			}
+		}
+		emitIndented(out, "}", 3);
+
+		if (!isFinal) {
+			String value;
+			if (accessor != null)
+				value = clrType.equals("sbyte") ? "(byte) value" : "value";
+			else if (javaType.equals(STRING_ARRAY))
+				value = "JObjectArray.From(value)";
+			else if (isObjectArray(javaType))
+				value = "JObjectArray.From(value, JClass.ForName(\""
+					+ getBaseType(javaType).replace('.', '/') + "\"))";
+			else if (clrType.equals("sbyte[]"))
+				value = "value != null ? new JByteArray((byte[]) (object) value) : null";
+			else if (isTypeArray(javaType))
+				value = "value != null ? new J" + getApiType(clrType)
+					+ "Array(value) : null";
+			else
+				value = "(JObject) value";
+			emitIndented(out, "set {", 3);
+			emitIndented(out, fid + ".Set" + (accessor != null ? accessor : "Object")
+				     + "(" + obj + ", " + value + ");", 4);
+			emitIndented(out, "}", 3);
+		}
+		emitIndented(out, "}", 2);
+		out.println();
+	}
+
+	private void emitFieldProperties(PrintStream out, PrintStream log,
+					 Element clazz, String className) {
+		List fields = clazz.elements("field");
+		if (fields.isEmpty())
+			return;
+
+		String type = normalize(clazz.attributeValue("name"));
+		HashSet names = new HashSet();
+		names.add(className);
+		names.add(getClassNameFromType(type));
+		/* The members the generator adds itself.  */
+		names.add("JClass");
+		names.add(lazyIds ? "jniMembers" : "clazz");
+		if (!lazyIds) {
+			List ctors = clazz.elements("constructor");
+			for (int i = 0; i < ctors.size(); i++)
+				names.add(ctorReference(i));
+			for (int i = 0; i < fields.size(); i++)
+				names.add(fieldReference((Element) fields.get(i), i));
+		}
+		if (valueTypes.contains(clazz.attributeValue("name"))) {
+			names.add("JNIValue");
+			names.add("ReadJNIValue");
+			names.add("ReadJNIValues");
+		}
+		if (isEnumerable(clazz.attributeValue("name")))
+			names.add("GetEnumerator");
+		List methods = clazz.elements("method");
+		for (int i = 0; i < methods.size(); i++) {
+			Element e = (Element) methods.get(i);
+			names.add(normalize(e.attributeValue("name")));
+			if (!lazyIds)
+				names.add(methodReference(e, i));
+		}
+		List declaredClasses = clazz.elements("class");
+		for (int i = 0; i < declaredClasses.size(); i++) {
+			Element e = (Element) declaredClasses.get(i);
+			names.add(getClassNameFromType(normalize(e.attributeValue("name"))));
+		}
+		for (int i = 0; i < fields.size(); i++)
+			emitFieldProperty(out, log, type, names,
+					  (Element) fields.get(i), i);
+	}
+
 	private String getCtorBaseCallParams(Element ctor) {
 		if (ctor.element("parameters") == null)
 			return "";
 
 		StringBuffer buf = new StringBuffer();
-		int numParams = ctor.element("parameters").elements("parameter").size();
+		List parameters = getParameters(ctor);
 
-		for (int i = 0; i < numParams; i++) {
-			buf.append(", arg" + i);
+		for (int i = 0; i < parameters.size(); i++) {
+			buf.append(", " + argumentValue(
+				(Element) parameters.get(i), i));
 		}
 		return buf.toString();
 	}
@@ -426,7 +991,8 @@ public class CsJniNetWrapperGenerator {
 		ctorHeader.append(") :");
 
 		emitIndented(out, ctorHeader.toString(), 2);
-		emitIndented(out, "base(ctor" + index + getCtorBaseCallParams(ctor) + ")", 3);
+		emitIndented(out, "base(" + ctorReference(index)
+			     + getCtorBaseCallParams(ctor) + ")", 3);
 		emitIndented(out, "{ }", 2);
 		out.println();
 	}
@@ -453,10 +1019,11 @@ public class CsJniNetWrapperGenerator {
 
 	private void emitSpecialStringCtor(PrintStream out, String className) {
 	    emitIndented(out, "public static implicit operator string (java.lang.String s) {", 2);
-	    emitIndented(out, "return (new JString((JObject)s)).String;", 3);
+	    emitIndented(out, "return JString.GetString(s);", 3);
 	    emitIndented(out, "}", 2);
 	    emitIndented(out, "", 2);
 	    emitIndented(out, "public static implicit operator java.lang.String (string s) {", 2);
+	    emitIndented(out, "if (s == null) return null;", 3);
 	    emitIndented(out, "JString native = new JString(s);", 3);
 	    emitIndented(out, "return new java.lang.String((JObject)native);", 3);
 	    emitIndented(out, "}", 2);
@@ -470,7 +1037,7 @@ public class CsJniNetWrapperGenerator {
 		propertySignature += "JClass JClass {";
 		emitIndented(out, propertySignature, 2);
 		emitIndented(out, "get {", 3);
-		emitIndented(out, "return clazz;", 4);
+		emitIndented(out, lazyIds ? "return jniMembers.Class;" : "return clazz;", 4);
 		emitIndented(out, "}", 3);
 		emitIndented(out, "}", 2);
 		out.println();
@@ -481,6 +1048,7 @@ public class CsJniNetWrapperGenerator {
 	}
 	
 	private void emitMethod(PrintStream out,
+			PrintStream log,
 			String type,
 			String className, 
 			Element method, 
@@ -531,7 +1099,7 @@ public class CsJniNetWrapperGenerator {
 			// TODO document this fix
 			// avoid name class
 			// member names cannot be the same as their enclosing type
-			System.out.println(
+			log.println(
 				type + ": method `" + methodName
 				+ "' renamed to `"
 				+ methodName + "_' because it is same as the "
@@ -558,6 +1126,7 @@ public class CsJniNetWrapperGenerator {
 	}
 	
 	private void emitMethods(PrintStream out,
+				 PrintStream log,
 				 Element clazz,
 				 boolean isClassFinal,
 				 boolean isClassInterface,
@@ -570,7 +1139,7 @@ public class CsJniNetWrapperGenerator {
 			Element e = (Element) methods.get(i);
 			boolean isAbstract = e.attributeValue("abstract") != null;
 			if (!forceNonAbstract || (forceNonAbstract && isAbstract))
-				emitMethod(out, type, className, e, i, isClassFinal,
+				emitMethod(out, log, type, className, e, i, isClassFinal,
 					   isClassInterface, forceNonAbstract);
 		}
 	}
@@ -601,6 +1170,32 @@ public class CsJniNetWrapperGenerator {
 		KEYWORDS.put ("params",      "params_");
 		KEYWORDS.put ("object",      "object_");
 		KEYWORDS.put ("string",      "string_");
+		KEYWORDS.put ("base",        "base_");
+		KEYWORDS.put ("checked",     "checked_");
+		KEYWORDS.put ("decimal",     "decimal_");
+		KEYWORDS.put ("delegate",    "delegate_");
+		KEYWORDS.put ("explicit",    "explicit_");
+		KEYWORDS.put ("extern",      "extern_");
+		KEYWORDS.put ("fixed",       "fixed_");
+		KEYWORDS.put ("foreach",     "foreach_");
+		KEYWORDS.put ("implicit",    "implicit_");
+		KEYWORDS.put ("in",          "in_");
+		KEYWORDS.put ("namespace",   "namespace_");
+		KEYWORDS.put ("operator",    "operator_");
+		KEYWORDS.put ("override",    "override_");
+		KEYWORDS.put ("readonly",    "readonly_");
+		KEYWORDS.put ("sealed",      "sealed_");
+		KEYWORDS.put ("sizeof",      "sizeof_");
+		KEYWORDS.put ("stackalloc",  "stackalloc_");
+		KEYWORDS.put ("struct",      "struct_");
+		KEYWORDS.put ("typeof",      "typeof_");
+		KEYWORDS.put ("uint",        "uint_");
+		KEYWORDS.put ("ulong",       "ulong_");
+		KEYWORDS.put ("unchecked",   "unchecked_");
+		KEYWORDS.put ("unsafe",      "unsafe_");
+		KEYWORDS.put ("ushort",      "ushort_");
+		KEYWORDS.put ("using",       "using_");
+		KEYWORDS.put ("virtual",     "virtual_");
 		KEYWORDS.put ("boolean",     "bool");
 		KEYWORDS.put ("byte",        "sbyte");
 	}
@@ -633,6 +1228,7 @@ public class CsJniNetWrapperGenerator {
 	}
 
 	private void emitInterfaceImplementationClass(PrintStream out,
+						      PrintStream log,
 						      Element clazz,
 						      boolean isInterface) {
 		String origType = clazz.attributeValue("name");
@@ -651,7 +1247,7 @@ public class CsJniNetWrapperGenerator {
 				     + className + " : " + baseClassName + " {",
 				     1);
 
-		emitIndented(out, "readonly static JClass clazz;", 2);
+		emitClassField(out);
 		emitConstants(out, clazz);
 		emitCtorAndMethodIds(out, clazz, className, true);
 		emitDefaultCtors(out, className, true);
@@ -660,21 +1256,28 @@ public class CsJniNetWrapperGenerator {
 		// interface class implementation defines new JClass property
 		if (isInterface)
 			emitClassAccessor(out, true);
+		if (isInterface && isEnumerable(origType))
+			emitEnumerator(out);
+		if (isInterface)
+			emitFieldProperties(out, log, clazz, className);
 
 		int modifiers = Integer.parseInt(clazz.attributeValue("modifiers"));
-		emitMethods(out, clazz, Modifier.isFinal(modifiers), isInterface, true);
+		emitMethods(out, log, clazz, Modifier.isFinal(modifiers),
+			    isInterface, true);
 		emitIndented(out, "}", 1);
 	}
 
-	private void emitInnerClasses(PrintStream out, Element parentClass) {
+	private void emitInnerClasses(PrintStream out, PrintStream log,
+				      Element parentClass) {
 		List declaredClasses = parentClass.elements("class");
 		for (int i = 0; i < declaredClasses.size(); i++) {
 			Element clazz = (Element) declaredClasses.get(i);
-			emitClassDeclaration(out, clazz, parentClass);
+			emitClassDeclaration(out, log, clazz, parentClass);
 		}
 	}
 	
 	private void emitClassDeclaration(PrintStream out, 
+			PrintStream log,
 			Element clazz, 
 			Element parentClass) {		
 		String origType = clazz.attributeValue("name");
@@ -685,7 +1288,7 @@ public class CsJniNetWrapperGenerator {
 			for (int i = 0; i < tokens.length; i++) {
 				String token = tokens[i];
 				if (Character.isDigit ((char) token.charAt (0))) {
-					System.out.println(origType + ": skipped anonymous class.");
+					log.println(origType + ": skipped anonymous class.");
 					return;
 				}
 			}
@@ -730,7 +1333,7 @@ public class CsJniNetWrapperGenerator {
 		out.println(" {");
 
 		if (!isInterface) {
-			emitIndented(out, "readonly static JClass clazz;", 2);
+			emitClassField(out);
 			emitConstants(out, clazz);
 			emitCtorAndMethodIds(out, clazz, className, false);
 
@@ -738,26 +1341,31 @@ public class CsJniNetWrapperGenerator {
 			 * If we are dealing with java.lang.String, emit
 			 * implicit operators
 			 */
-			if (ctrIndex > 0) {
+			if (hasStringConversions(clazz))
 				emitSpecialStringCtor(out, className);
-				ctrIndex = -1;
-			}
 			emitCtors(out, clazz, className);
 			emitDefaultCtors(out, className, false);
 			emitClassAccessor(out, !"java.lang.Object".equals(origType));
+			if (isEnumerable(origType)
+			    && !isEnumerable(clazz.attributeValue("parent")))
+				emitEnumerator(out);
+			if (valueTypes.contains(origType))
+				emitValueReader(out, clazz, valueTypes.contains(
+					clazz.attributeValue("parent")));
+			emitFieldProperties(out, log, clazz, className);
 		}
 
-		emitMethods(out, clazz,
+		emitMethods(out, log, clazz,
 			    Modifier.isFinal(modifiers),
 			    Modifier.isInterface(modifiers),
 			    false);
 		
 		if (!isInterface) {
-			emitInnerClasses(out, clazz);
+			emitInnerClasses(out, log, clazz);
 			emitIndented(out, "}", 1);
 		} else {
 			emitIndented(out, "}", 1);
-			emitInnerClasses(out, clazz);
+			emitInnerClasses(out, log, clazz);
 		}
 
 		/*
@@ -766,11 +1374,50 @@ public class CsJniNetWrapperGenerator {
 		 */
 		if (isAbstract || isInterface) {
 			out.println();
-			emitInterfaceImplementationClass(out, clazz, isInterface);
+			emitInterfaceImplementationClass(out, log, clazz, isInterface);
 		}
 	}
 
-	private void emitWrapperClass(Element clazz, String dir) {
+	/** Bump whenever the generated C# changes.  */
+	private final static String CACHE_VERSION = "6";
+
+	private FingerprintCache cache;
+
+	/** Fingerprint of the mangle map every class is normalized with.  */
+	private long mangleFingerprint;
+
+	/**
+	 * Reuses the proxies of a previous run. A proxy is regenerated
+	 * when its class element, the mangle map, the ID mode or the value
+	 * types changed.
+	 */
+	public void setCache(File file) throws IOException {
+		cache = new FingerprintCache(file,
+			"CsJniNetWrapperGenerator " + CACHE_VERSION);
+	}
+
+	private static long crc(String s) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(s.getBytes("UTF-8"));
+		return crc.getValue();
+	}
+
+	private void writeFile(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the proxy file of a top-level class. Only reads shared
+	 * state, so it may run on any number of threads at once; the
+	 * messages of the class go to <code>log</code>.
+	 */
+	private void emitWrapperClass(Element clazz, String dir,
+				      PrintStream log) {
 		try {
 			int modifiers = Integer.parseInt(clazz.attributeValue("modifiers"));
 
@@ -783,11 +1430,25 @@ public class CsJniNetWrapperGenerator {
 			String type = normalize(origType);
 
 			File outFile = new File(dir + File.separatorChar + type + ".cs");
-			PrintStream out =
-				new PrintStream(
-					new BufferedOutputStream(
-						new FileOutputStream(outFile))
-				);
+
+			long[] fingerprints = null;
+			if (cache != null) {
+				String xml = clazz.asXML();
+				fingerprints = new long[] {
+					crc(xml), xml.length(), mangleFingerprint,
+					lazyIds ? 1 : 0, valuesFingerprint
+				};
+				FingerprintCache.Entry entry = cache.get(origType);
+				if (entry != null && entry.matches(fingerprints)) {
+					cache.put(origType, entry);
+					if (!outFile.exists())
+						writeFile(outFile, entry.data);
+					return;
+				}
+			}
+
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(buf);
 
 			emitIndented(out, "using DotNetSystem = System;", 0);
 			emitIndented(out, "using Caffeine.Jni;", 0);
@@ -798,35 +1459,155 @@ public class CsJniNetWrapperGenerator {
 			if (packageName != null)
 				emitIndented(out, "namespace " + packageName + " {", 0);
 
-			emitClassDeclaration(out, clazz, null);
+			emitClassDeclaration(out, log, clazz, null);
 
 			if (packageName != null)
 				emitIndented(out, "}", 0);
 
 			out.flush();
+			byte[] data = buf.toByteArray();
+			writeFile(outFile, data);
+			if (cache != null)
+				cache.put(origType, new FingerprintCache.Entry(
+					new String[0], fingerprints, data));
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 						
-	private void generate(Element root, String dir) {
-		int count = 0;
-		try {	
-			Iterator iter = root.elementIterator("class");
-			while (iter.hasNext()) {
-				Element e = (Element) iter.next();
-				emitWrapperClass(e, dir);
-				count++;
+	/**
+	 * Hands every top-level class element of an API file to a handler.
+	 *
+	 * The file is read with SAX and a class element is detached from
+	 * the document before it is handled, so the document never holds
+	 * more than the class being read regardless of the size of the API.
+	 */
+	private abstract class ClassHandler implements ElementHandler {
+		public void onStart(ElementPath path) {
+		}
+
+		public void onEnd(ElementPath path) {
+			Element clazz = path.getCurrent();
+			clazz.detach();
+			try {
+				handle(clazz);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		}
+
+		protected abstract void handle(Element clazz) throws Exception;
+	}
+
+	private void readClasses(String filename, ClassHandler handler)
+		throws Exception {
+		SAXReader reader = new SAXReader();
+		/* Keep the whitespace between classes from piling up.  */
+		reader.setStripWhitespaceText(true);
+		reader.addHandler("/api/class", handler);
+		Document apiDocument = reader.read(new File(filename));
+		Element root = apiDocument.getRootElement();
+		if (root == null || !root.getName().equals("api")) {
+			throw new RuntimeException(
+				filename + " does not contain root "
+				+ "element `api'.");
+		}
+	}
+
+	/**
+	 * Number of threads writing proxy files. Zero or one means the
+	 * classic serial emission.
+	 */
+	private int parallelism = 0;
+
+	/** Proxies queued or in progress per thread.  */
+	private final static int CLASSES_PER_THREAD = 4;
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Emits the proxy of one class and returns its messages.
+	 */
+	private class EmitTask implements Callable {
+		private final Element clazz;
+		private final String dir;
+
+		public EmitTask(Element clazz, String dir) {
+			this.clazz = clazz;
+			this.dir = dir;
+		}
+
+		public Object call() {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			PrintStream log = new PrintStream(buf);
+			emitWrapperClass(clazz, dir, log);
+			log.flush();
+			return buf.toByteArray();
+		}
+	}
+
+	/** Prints the messages of the oldest proxy once it is done.  */
+	private void printMessages(LinkedList pending) throws Exception {
+		FutureTask task = (FutureTask) pending.removeFirst();
+		try {
+			System.out.write((byte[]) task.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	private int count;
+
+	/**
+	 * Emits the proxies, on a pool of <code>parallelism</code> threads
+	 * if asked to. Classes are handed to the pool as they are read, at
+	 * most a few per thread at a time, and their messages are printed
+	 * in document order so the output does not depend on scheduling.
+	 */
+	private void emitWrapperClasses(String filename, final String dir)
+		throws Exception {
+		count = 0;
+		final ExecutorService pool = parallelism > 1
+			? Executors.newFixedThreadPool(parallelism) : null;
+		final int limit = parallelism * CLASSES_PER_THREAD;
+		final LinkedList pending = new LinkedList();
+		try {
+			readClasses(filename, new ClassHandler() {
+				protected void handle(Element clazz)
+					throws Exception {
+					FutureTask task = new FutureTask(
+						new EmitTask(clazz, dir));
+					pending.add(task);
+					count++;
+					if (pool == null) {
+						task.run();
+						printMessages(pending);
+						return;
+					}
+					pool.execute(task);
+					while (pending.size() > limit
+					       || (!pending.isEmpty()
+						   && ((FutureTask) pending.getFirst()).isDone()))
+						printMessages(pending);
+				}
+			});
+			while (!pending.isEmpty())
+				printMessages(pending);
 		} finally {
+			if (pool != null)
+				pool.shutdownNow();
 			System.out.println(count +
 				" proxy classes generated into directory `"
 				+ dir + "'.");
 		}
 	}
-	
+
 	private void mangleType(Element clazz, Element parentClass) {
 		int parentModifers = 0;
 		if (parentClass != null)
@@ -846,32 +1627,79 @@ public class CsJniNetWrapperGenerator {
 		}
 	}
 	
+	/** Filled by the first pass, only read while emitting.  */
 	private final HashMap mangledTypes = new HashMap();
-	
-	private void populateMangleMap(Element root) {
-		try {	
-			Iterator iter = root.elementIterator("class");
-			while (iter.hasNext()) {
-				Element e = (Element) iter.next();
-				mangleType (e, null);
+
+	/** The parent and interfaces of every class, from the first pass.  */
+	private final HashMap supertypes = new HashMap();
+
+	/** The classes and interfaces that are java.util.Collections.  */
+	private final HashSet collectionTypes = new HashSet();
+
+	private void collectSupertypes(Element clazz) {
+		List types = new ArrayList();
+		if (clazz.attributeValue("parent") != null)
+			types.add(clazz.attributeValue("parent"));
+		Element interfacesRoot = clazz.element("implements");
+		if (interfacesRoot != null) {
+			Iterator interfaces = interfacesRoot.elementIterator("interface");
+			while (interfaces.hasNext()) {
+				Element e = (Element) interfaces.next();
+				types.add(e.attributeValue("name"));
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}	
+		}
+		supertypes.put(clazz.attributeValue("name"), types);
+
+		List declaredClasses = clazz.elements("class");
+		for (int i = 0; i < declaredClasses.size(); i++)
+			collectSupertypes((Element) declaredClasses.get(i));
+	}
+
+	private boolean isCollection(String type, HashSet seen) {
+		if (type.equals(COLLECTION))
+			return true;
+		if (!seen.add(type))
+			return false;
+		List types = (List) supertypes.get(type);
+		if (types == null)
+			return false;
+		for (int i = 0; i < types.size(); i++) {
+			if (isCollection((String) types.get(i), seen))
+				return true;
+		}
+		return false;
+	}
+
+	private void populateMangleMap(String filename) throws Exception {
+		readClasses(filename, new ClassHandler() {
+			protected void handle(Element clazz) {
+				mangleType(clazz, null);
+				collectSupertypes(clazz);
+			}
+		});
+		Iterator types = supertypes.keySet().iterator();
+		while (types.hasNext()) {
+			String type = (String) types.next();
+			if (isCollection(type, new HashSet()))
+				collectionTypes.add(type);
+		}
+		mangleFingerprint = crc(new TreeMap(mangledTypes).toString()
+					+ new TreeSet(collectionTypes));
 	}
 	
+	/**
+	 * Generates the proxies in two passes over the API file: the first
+	 * one only collects the mangled type names, the second one emits
+	 * the proxies.
+	 */
 	public void generate(String filename, String dir) {
 		try {
-			SAXReader reader = new SAXReader();
-			Document apiDocument = reader.read(new File(filename));
-			Element root = apiDocument.getRootElement();
-			if (root != null && root.getName().equals("api")) {
-				populateMangleMap(root);
-				generate(root, dir);
-			} else {
-				throw new RuntimeException(
-					filename + " does not contain root "
-					+ "element `api'.");
+			populateMangleMap(filename);
+			emitWrapperClasses(filename, dir);
+			if (cache != null) {
+				cache.save();
+				System.out.println(cache.getReused()
+					+ " proxy classes reused from cache.");
 			}
 		} catch (Exception e) {
 			throw new RuntimeException (e);
@@ -879,14 +1707,47 @@ public class CsJniNetWrapperGenerator {
 	}
 	
 	private static void usage() {
-		System.out.println("CsJniNetWrapperGenerator [filename] [output-dir]");
+		System.out.println("CsJniNetWrapperGenerator [-lazy] [-j <threads>] "
+				   + "[-cache <file>] [-values <file>] "
+				   + "[filename] [output-dir]");
 		System.exit(1);
 	}
 
 	public static void main(String[] args) {
-		if (args.length != 2)
-			usage();
 		CsJniNetWrapperGenerator gen = new CsJniNetWrapperGenerator();
-		gen.generate(args[0], args[1]);
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if ("-lazy".equals(args[first])) {
+				gen.setLazyIds(true);
+				first++;
+			} else if ("-j".equals(args[first]) && first + 1 < args.length) {
+				int threads = Integer.parseInt(args[first + 1]);
+				if (threads <= 0)
+					threads = Runtime.getRuntime().availableProcessors();
+				gen.setParallelism(threads);
+				first += 2;
+			} else if ("-cache".equals(args[first])
+				   && first + 1 < args.length) {
+				try {
+					gen.setCache(new File(args[first + 1]));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				first += 2;
+			} else if ("-values".equals(args[first])
+				   && first + 1 < args.length) {
+				try {
+					gen.setValueTypes(new File(args[first + 1]));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				first += 2;
+			} else {
+				usage();
+			}
+		}
+		if (args.length - first != 2)
+			usage();
+		gen.generate(args[first], args[first + 1]);
 	}
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2003 Pekka Enberg <penberg@iki.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.olympum.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent per-class generator output.
+ *
+ * Every entry keeps the output generated for one class together with
+ * the fingerprints of everything that output was computed from. A
+ * generator reuses the output while the fingerprints still match and
+ * regenerates it otherwise. The whole cache is discarded when the
+ * version it was written with differs, so a generator must change its
+ * version whenever its output format changes.
+ */
+class FingerprintCache {
+	private final static int MAGIC = 0xCAFECACE;
+
+	static class Entry {
+		/** Names of the inputs, eg. the classes that were read.  */
+		public String[] dependencies;
+		/** Fingerprints of the inputs, in generator-defined order.  */
+		public long[] fingerprints;
+		public byte[] data;
+
+		public Entry(String[] dependencies, long[] fingerprints,
+			     byte[] data) {
+			this.dependencies = dependencies;
+			this.fingerprints = fingerprints;
+			this.data = data;
+		}
+
+		public boolean matches(long[] fingerprints) {
+			if (fingerprints.length != this.fingerprints.length)
+				return false;
+			for (int i = 0; i < fingerprints.length; i++) {
+				if (fingerprints[i] != this.fingerprints[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private final File file;
+	private final String version;
+	/** Entries of the previous run.  */
+	private final HashMap previous = new HashMap();
+	/** Entries of this run; only these are saved.  */
+	private final Map current = new TreeMap();
+
+	public FingerprintCache(File file, String version) throws IOException {
+		this.file = file;
+		this.version = version;
+		if (file.exists())
+			load();
+	}
+
+	/**
+	 * Reads the entries of the previous run. A cache that cannot be
+	 * read, eg. an empty, truncated or corrupt file, is only reported:
+	 * everything is regenerated as if there were none.
+	 */
+	private void load() {
+		try {
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+			try {
+				read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			discard(e);
+		} catch (RuntimeException e) {
+			discard(e);
+		}
+	}
+
+	private void discard(Exception e) {
+		previous.clear();
+		System.out.println("Ignoring unreadable cache `" + file
+				   + "': " + e);
+	}
+
+	private void read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || !version.equals(in.readUTF()))
+			return;
+		int count = readCount(in);
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			String[] dependencies = new String[readCount(in)];
+			for (int j = 0; j < dependencies.length; j++)
+				dependencies[j] = in.readUTF();
+			long[] fingerprints = new long[readCount(in)];
+			for (int j = 0; j < fingerprints.length; j++)
+				fingerprints[j] = in.readLong();
+			byte[] data = new byte[readCount(in)];
+			in.readFully(data);
+			previous.put(name,
+				new Entry(dependencies, fingerprints, data));
+		}
+	}
+
+	/**
+	 * Reads a count or a length, which cannot exceed the size of the
+	 * file, so that a corrupt one fails before anything is allocated.
+	 */
+	private int readCount(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0 || n > file.length())
+			throw new IOException("bad count " + n);
+		return n;
+	}
+
+	/** Returns the entry of the previous run, if any.  */
+	public synchronized Entry get(String name) {
+		return (Entry) previous.get(name);
+	}
+
+	/** Records an entry, new or reused, to be saved.  */
+	public synchronized void put(String name, Entry entry) {
+		current.put(name, entry);
+	}
+
+	public synchronized void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(version);
+			out.writeInt(current.size());
+			Iterator iter = current.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry e = (Map.Entry) iter.next();
+				Entry entry = (Entry) e.getValue();
+				out.writeUTF((String) e.getKey());
+				out.writeInt(entry.dependencies.length);
+				for (int i = 0; i < entry.dependencies.length; i++)
+					out.writeUTF(entry.dependencies[i]);
+				out.writeInt(entry.fingerprints.length);
+				for (int i = 0; i < entry.fingerprints.length; i++)
+					out.writeLong(entry.fingerprints[i]);
+				out.writeInt(entry.data.length);
+				out.write(entry.data);
+			}
+		} finally {
+			out.close();
+		}
+		/* Replace the old cache only once the new one is complete.  */
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("Cannot write " + file);
+	}
+
+	/** Returns how many entries of the previous run were reused.  */
+	public synchronized int getReused() {
+		int reused = 0;
+		Iterator iter = current.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry e = (Map.Entry) iter.next();
+			if (previous.get(e.getKey()) == e.getValue())
+				reused++;
+		}
+		return reused;
+	}
+}
@@ -24,19 +24,21 @@
 package com.olympum.tools;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -48,15 +50,19 @@ import java.util.jar.JarFile;
 class JavaApiXmlGenerator {
 	private boolean isJavaClass(String filename) {
 		/* Ignore inner classes here. The emitClass method can query
-		   for them later.  */
+		   for them later. Module descriptors are not classes, and
+		   the release-specific copies of a multi-release jar would
+		   clash with the base ones.  */
 		return filename.endsWith(".class") && 
-			filename.indexOf('$') < 0;
+			filename.indexOf('$') < 0 &&
+			!filename.equals("module-info.class") &&
+			!filename.startsWith("META-INF/versions/");
 	}
 
 	private String getClassNameFromFilename(String filename) {
 		return filename
 			.substring(0, filename.length() - 6)
-				.replace(File.separatorChar, '.');
+				.replace('/', '.');
 	}
 	
 	private void emitMethodModifier(PrintStream out, String modifier) {
@@ -90,44 +96,63 @@ class JavaApiXmlGenerator {
 		NATIVE_MAP.put("J",	"long");
 		NATIVE_MAP.put("F", 	"float");
 		NATIVE_MAP.put("D", 	"double");
+		NATIVE_MAP.put("V", 	"void");
 	}
 	
-	private Class getNativeType (Class arrayClass) {
-		Class type = (Class) NATIVE_MAP.get (arrayClass);
-		return (type != null) ? type : arrayClass.getComponentType ();
-	}
-	
-	private String getTypeString(Class clazz) {
-		if (!clazz.isArray())
-			return clazz.getName();
-		
-		Class componentType = clazz.getComponentType();
-		int dimensions = 1;
-		while (componentType.getComponentType() != null) {
+	/**
+	 * Returns the type name of a field descriptor, for example
+	 * <code>int[]</code> for <code>[I</code>.
+	 */
+	private static String getTypeString(String descriptor) {
+		int dimensions = 0;
+		while (descriptor.charAt(dimensions) == '[')
 			dimensions++;
-			componentType = componentType.getComponentType();
-		}
-		String typeName = (String) NATIVE_MAP.get(componentType.getName());
+
+		String componentType = descriptor.substring(dimensions);
+		String typeName = (String) NATIVE_MAP.get(componentType);
 		if (typeName == null)
-			typeName = componentType.getName();
-		
+			typeName = componentType
+				.substring(1, componentType.length() - 1)
+					.replace('/', '.');
+
 		for (int i = 0; i < dimensions; i++) {
 			typeName += "[]";
 		}
-		
-		return typeName;	
+
+		return typeName;
 	}
 
-	private void emitParentClass(PrintStream out, Class superclass) {
-		if (superclass == null)
+	/** Splits the parameter part of a method descriptor.  */
+	private static String[] getParameterDescriptors(String descriptor) {
+		ArrayList ret = new ArrayList();
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			int start = i;
+			while (descriptor.charAt(i) == '[')
+				i++;
+			if (descriptor.charAt(i) == 'L')
+				i = descriptor.indexOf(';', i);
+			i++;
+			ret.add(descriptor.substring(start, i));
+		}
+		return (String[]) ret.toArray(new String[ret.size()]);
+	}
+
+	private static String getReturnDescriptor(String descriptor) {
+		return descriptor.substring(descriptor.indexOf(')') + 1);
+	}
+
+	private void emitParentClass(PrintStream out, ClassInfo clazz) {
+		if (clazz.superclass == null)
 			return;
-		if (Modifier.isPrivate(superclass.getModifiers()))
+		if (Modifier.isPrivate(clazz.superclassModifiers))
 			return;
 			
-		out.print(" parent=\"" + getTypeString(superclass) + "\"");
+		out.print(" parent=\"" + clazz.superclass + "\"");
 	}
 
-	private void emitImplements(PrintStream out, Class[] interfaces) {
+	private void emitImplements(PrintStream out, ClassInfo clazz) {
+		String[] interfaces = clazz.interfaces;
 		if (interfaces.length == 0)
 			return;
 		
@@ -135,52 +160,36 @@ class JavaApiXmlGenerator {
 		
 		int i;
 		for (i = 0; i < interfaces.length; i++) {
-			Class iface = interfaces[i];
-			if (!Modifier.isPublic (iface.getModifiers ()))
+			if (!Modifier.isPublic (clazz.interfaceModifiers[i]))
 				continue;
 			if (!emitted) {
 				out.println("<implements>");
 				emitted = true;
 			}
 			out.println("<interface name=\"" + 
-				getTypeString(interfaces[i]) + "\"/>");
+				interfaces[i] + "\"/>");
 		}
 		if (emitted)
 			out.println("</implements>");
 	}
 
-	private void emitConstant(PrintStream out, Field field) {
-		Class fieldType = field.getType();
-
+	private void emitConstant(PrintStream out, FieldInfo field) {
 		/*
 		 * TODO: object constants are not supported.
 		 */
-		if (!fieldType.isPrimitive())
+		if (field.value == null)
 			return;
 
-		String value = null;
-		try {
-			if ("boolean".equals(fieldType.getName())) {
-				value = Boolean.toString(field.getBoolean(null));
-			} else if ("double".equals(fieldType.getName())
-				   || "float".equals(fieldType.getName())) {
-				value = Double.toString(field.getDouble(null));
-			} else {
-				value = Long.toString(field.getLong(null));
-			}
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
-		}
 		out.print("<constant ");
-		out.print("name=\"" + field.getName() + "\" ");
-		out.print("type=\"" + field.getType() + "\" ");
-		out.print("value=\"" + value + "\"");
+		out.print("name=\"" + field.name + "\" ");
+		out.print("type=\"" + field.type + "\" ");
+		out.print("value=\"" + field.value + "\"");
 		out.println("/>");
 	}
 
-	private void emitConstants(PrintStream out, Field[] fields) {
+	private void emitConstants(PrintStream out, FieldInfo[] fields) {
 		for (int i = 0; i < fields.length; i++) {
-			int modifiers = fields[i].getModifiers();
+			int modifiers = fields[i].modifiers;
 			if (Modifier.isPublic(modifiers)
 			    && Modifier.isStatic(modifiers)
 			    && Modifier.isFinal(modifiers)) {
@@ -189,84 +198,95 @@ class JavaApiXmlGenerator {
 		}
 	}
 
+	/** ACC_SYNTHETIC, which java.lang.reflect.Modifier does not name.  */
+	private final static int SYNTHETIC = 0x1000;
+
+	private void emitField(PrintStream out, FieldInfo field) {
+		out.print("<field name=\"" + field.name + "\" ");
+		out.print("type=\"" + field.type + "\" ");
+		if (Modifier.isStatic(field.modifiers))
+			out.print("static=\"true\" ");
+		if (Modifier.isFinal(field.modifiers))
+			out.print("final=\"true\" ");
+		if (field.nonInstantiable)
+			out.print("non-instantiable=\"true\" ");
+		out.println("/>");
+	}
+
+	/**
+	 * Emits the public fields that are not constants, which proxies
+	 * read and write through JField.
+	 */
+	private void emitFields(PrintStream out, FieldInfo[] fields) {
+		for (int i = 0; i < fields.length; i++) {
+			int modifiers = fields[i].modifiers;
+			if (!Modifier.isPublic(modifiers)
+			    || (modifiers & SYNTHETIC) != 0)
+				continue;
+			if (Modifier.isStatic(modifiers)
+			    && Modifier.isFinal(modifiers)
+			    && fields[i].value != null)
+				continue;
+			emitField(out, fields[i]);
+		}
+	}
+
 	private void emitConstructor(PrintStream out,
-				     Constructor constructor) {
+				     MethodInfo constructor) {
 		out.println("<constructor>");
-		emitMethodParameters(out, constructor.getParameterTypes());
+		emitMethodParameters(out, constructor.parameterTypes);
 		out.println("</constructor>");
 	}
 
 	private void emitConstructors(PrintStream out,
-				      Constructor[] constructors) {
+				      MethodInfo[] constructors) {
 		for (int i = 0; i < constructors.length; i++) {
-			if (Modifier.isPublic(constructors[i].getModifiers())) {
+			if (Modifier.isPublic(constructors[i].modifiers)) {
 				emitConstructor(out, constructors[i]);
 			}
 		}
 	}
 
-	private void emitMethodParameters(PrintStream out, Class[] params) {
+	private void emitMethodParameters(PrintStream out, String[] params) {
 		if (params.length == 0)
 			return;
 		out.println("<parameters>");
 		for (int i = 0; i < params.length; i++) {
-			out.println("<parameter type=\"" + getTypeString(params[i]) + "\"/>");
+			out.println("<parameter type=\"" + params[i] + "\"/>");
 		}
 		out.println("</parameters>");
 	}
 	
-	private void emitThrows(PrintStream out, Class[] exceptionTypes) {
+	private void emitThrows(PrintStream out, String[] exceptionTypes) {
 		if (exceptionTypes.length == 0)
 			return;
 		out.println("<exceptions>");
 		final int length = exceptionTypes.length;
 		for (int i = 0; i < length; i++) {
-			out.println("<throws type=\"" + exceptionTypes[i].getName() + "\"/>");
+			out.println("<throws type=\"" + exceptionTypes[i] + "\"/>");
 		}
 		out.println("</exceptions>");
 	}
 
-	private boolean hasAbstractMethods(Class clazz) {
-		Method[] methods = clazz.getMethods();
-		for (int i = 0; i < methods.length; i++) {
-			if (Modifier.isAbstract(methods[i].getModifiers()))
-				return true;
-		}
-		return false;
-	}
-
-	private Class getNonArrayType(Class type) {
-		Class ret = type;
-		while (ret.isArray())
-			ret = ret.getComponentType();
-		return ret;
-	}
-
-	private void emitMethod(PrintStream out, Method method, boolean overwritten) {
-		out.print("<method name=\"" + method.getName() + "\" ");
-		emitMethodModifiers(out, method.getModifiers(), overwritten);
+	private void emitMethod(PrintStream out, MethodInfo method, boolean overwritten) {
+		out.print("<method name=\"" + method.name + "\" ");
+		emitMethodModifiers(out, method.modifiers, overwritten);
 		out.println(">");
 
-		Class returnType = method.getReturnType();
 		out.print("<return-type ");
-		out.print("type=\"" + getTypeString(returnType) + "\"");
-
-		Class nonArrayType = getNonArrayType(returnType);
-		if (!nonArrayType.isPrimitive()
-		    && (nonArrayType.isInterface()
-		        || hasAbstractMethods(nonArrayType)
-		        || Modifier.isAbstract(nonArrayType.getModifiers())))
+		out.print("type=\"" + method.returnType + "\"");
+		if (method.nonInstantiable)
 			out.print(" non-instantiable=\"true\"");
-
 		out.println("/>");
-		emitMethodParameters(out, method.getParameterTypes());
-		emitThrows (out, method.getExceptionTypes());
+
+		emitMethodParameters(out, method.parameterTypes);
+		emitThrows (out, method.exceptionTypes);
 		out.println("</method>");
 	}
 
-	private void emitMethods(PrintStream out, Method[] methods, boolean overwritten) {
+	private void emitMethods(PrintStream out, MethodInfo[] methods, boolean overwritten) {
 		for (int i = 0; i < methods.length; i++) {
-			if (Modifier.isPublic(methods[i].getModifiers())) {
+			if (Modifier.isPublic(methods[i].modifiers)) {
 				emitMethod(out, methods[i], overwritten);
 			}
 		}
@@ -278,154 +298,357 @@ class JavaApiXmlGenerator {
 		out.print("\"");
 	}
 	
-	private void emitClass(PrintStream out, ClassInfo clazz, ClassLoader loader) {
+	private void emitClass(PrintStream out, ClassInfo clazz, ClassFile.Repository classes) {
 		out.print("<class name=\"");
-		out.print(clazz.clazz.getName() + "\"");
-		if (clazz.clazz == Object.class) {
+		out.print(clazz.name + "\"");
+		if ("java.lang.Object".equals(clazz.name)) {
 			System.out.println("java.lang.Object: emitted as `JObject'.");
 			out.print(" parent=\"Caffeine.Jni.JObject\"");
 		} else {			
-			emitParentClass(out, clazz.superclass);
+			emitParentClass(out, clazz);
 		}
 		out.print(" ");
 		emitClassModifiers(out, clazz);
 		out.println(">");
-		emitImplements(out, clazz.interfaces);
+		emitImplements(out, clazz);
 
-		if (Modifier.isPublic(clazz.clazz.getModifiers()))
+		if (Modifier.isPublic(clazz.modifiers)) {
 			emitConstants(out, clazz.fields);
+			emitFields(out, clazz.fields);
+		}
 
 		emitConstructors(out, clazz.ctors);
 		emitMethods(out, clazz.newMethods, false);
 		emitMethods(out, clazz.overwrittenMethods, true);
-		emitDeclaredClasses (out, clazz.clazz.getDeclaredClasses(), loader);
+		emitDeclaredClasses (out, clazz.declaredClasses, classes);
 		out.println("</class>");
 	}
 	
-	private void emitDeclaredClasses(PrintStream out, Class[] classes, ClassLoader loader) {
+	private void emitDeclaredClasses(PrintStream out, String[] classes,
+					 ClassFile.Repository repository) {
 		final int nClasses = classes.length;
 		for (int i = 0; i < nClasses; i++) {
-			String className = classes[i].getName ();
-			ClassInfo clazz = getClassFromName (className, loader);
+			ClassInfo clazz = getClassFromName (classes[i], repository);
+			if (clazz == null)
+				continue;
 			if (Modifier.isPublic(clazz.modifiers) ||
 				Modifier.isProtected(clazz.modifiers)) 
-				emitClass(out, clazz, loader);
+				emitClass(out, clazz, repository);
 		}
 	}
 
+	private static class FieldInfo {
+		public String name;
+		public int modifiers;
+		public String type;
+		/** Constant value, <code>null</code> unless a primitive constant.  */
+		public String value;
+		public boolean nonInstantiable;
+	}
+
+	private static class MethodInfo {
+		public String name;
+		public int modifiers;
+		public String[] parameterTypes;
+		public String returnType;
+		public boolean nonInstantiable;
+		public String[] exceptionTypes;
+	}
+
+	/**
+	 * The API model of one class, read from its class file. Nothing
+	 * is loaded into the JVM: static initializers never run and a
+	 * missing dependency only makes the model less precise.
+	 */
 	private static class ClassInfo {
-		public Class clazz;
-		public Class superclass;
-		public Class[] interfaces;
-		public Constructor[] ctors;
-		public Method[] newMethods;
-		public Method[] overwrittenMethods;
-		public Field[] fields;
+		public String name;
 		public int modifiers;
+		public String superclass;
+		public int superclassModifiers;
+		public String[] interfaces;
+		public int[] interfaceModifiers;
+		public MethodInfo[] ctors;
+		public MethodInfo[] newMethods;
+		public MethodInfo[] overwrittenMethods;
+		public FieldInfo[] fields;
+		public String[] declaredClasses;
+
+		public static ClassInfo loadClass(String name,
+						  ClassFile.Repository classes,
+						  MethodIndexes indexes) {
+			ClassFile classFile = classes.lookup(name);
+			if (classFile == null)
+				throw new NoClassDefFoundError(name.replace('.', '/'));
+
+			ClassInfo ret = new ClassInfo();
+			ret.name = classFile.name;
+			ret.modifiers = classFile.getModifiers();
+
+			/* Like Class.getSuperclass(), interfaces have none.  */
+			if (!Modifier.isInterface(ret.modifiers)
+			    && classFile.superName != null) {
+				ret.superclass = classFile.superName;
+				ClassFile superclass = classes.lookup(ret.superclass);
+				if (superclass != null)
+					ret.superclassModifiers = superclass.getModifiers();
+			}
+
+			ret.interfaces = classFile.interfaces;
+			ret.interfaceModifiers = new int[ret.interfaces.length];
+			for (int i = 0; i < ret.interfaces.length; i++) {
+				ClassFile iface = classes.lookup(ret.interfaces[i]);
+				/* Assume public if we can't tell.  */
+				ret.interfaceModifiers[i] = iface != null
+					? iface.getModifiers() : Modifier.PUBLIC;
+			}
+
+			ret.fields = new FieldInfo[classFile.fields.length];
+			for (int i = 0; i < ret.fields.length; i++)
+				ret.fields[i] = getFieldInfo(classFile.fields[i],
+							     classes, indexes);
+
+			ArrayList ctors = new ArrayList();
+			ArrayList methods = new ArrayList();
+			for (int i = 0; i < classFile.methods.length; i++) {
+				ClassFile.Member m = classFile.methods[i];
+				if ("<init>".equals(m.name))
+					ctors.add(getMethodInfo(m, classes, indexes));
+				else if (!"<clinit>".equals(m.name))
+					methods.add(m);
+			}
+			ret.ctors = (MethodInfo[]) ctors.toArray(new MethodInfo[ctors.size()]);
 
-		private ClassInfo(Class clazz,
-				  Class superclass,
-				  Class[] interfaces,
-				  Constructor[] ctors,
-				  Method[] newMethods,
-				  Method[] overwrittenMethods,
-				  Field[] fields,
-				  int modifiers) {
-			this.clazz = clazz;
-			this.superclass = superclass;
-			this.interfaces = interfaces;
-			this.ctors = ctors;
-			this.newMethods = newMethods;
-			this.overwrittenMethods = overwrittenMethods;
-			this.fields = fields;
-			this.modifiers = modifiers;
-		}
-
-		public static ClassInfo loadClass(String name, ClassLoader loader)
-		    throws ClassNotFoundException {
-			/* Reflect everything here so we can catch
-			   ClassDefNotFoundError in one place.  */
-			Class clazz = loader.loadClass(name.replace('/','.'));
-			Class superclass = clazz.getSuperclass();
-			Class[] interfaces = clazz.getInterfaces();
-			Constructor[] ctors = clazz.getDeclaredConstructors();
-			Field[] fields = clazz.getDeclaredFields();
-
-			Method[] nMethods = null;
-			Method[] oMethods = null;
-			if (superclass != null) {
-				Method[] methods = clazz.getDeclaredMethods();				
-				Method[] parentMethods = superclass.getMethods();
+			if (ret.superclass != null) {
+				MethodIndex parent = indexes.get(ret.superclass, classes);
 				ArrayList overwrittenMethods = new ArrayList ();
 				ArrayList newMethods = new ArrayList ();
-				final int length = methods.length;
-				final int pLength = parentMethods.length;
+
+				final int length = methods.size();
 				for (int i = 0; i < length; i++) {
-					Method m = methods[i];
-					String methodName = m.getName ();
-					boolean overwritten = false;
-					for (int j = 0; j < pLength; j++) {
-						Method p = parentMethods[j];
-						String parentMethodName = p.getName ();
-						if (methodName.equals(parentMethodName)) {
-							Class[] thisTypes = m.getParameterTypes();
-							Class[] parentTypes = p.getParameterTypes();
-							if (areEqual(thisTypes, parentTypes)) {
-								overwritten = true;
-								break;
-							}
-						}
-					}
-					if (overwritten)
-						overwrittenMethods.add (m);
+					ClassFile.Member m = (ClassFile.Member) methods.get(i);
+					MethodInfo info = getMethodInfo(m, classes, indexes);
+					if (parent.signatures.contains(getSignature(m)))
+						overwrittenMethods.add (info);
 					else
-						newMethods.add (m);
+						newMethods.add (info);
 				}
 				
-				oMethods = new Method[overwrittenMethods.size()];
-				nMethods = new Method[newMethods.size()];
-				overwrittenMethods.toArray (oMethods);
-				newMethods.toArray (nMethods);
+				ret.overwrittenMethods = new MethodInfo[overwrittenMethods.size()];
+				ret.newMethods = new MethodInfo[newMethods.size()];
+				overwrittenMethods.toArray (ret.overwrittenMethods);
+				newMethods.toArray (ret.newMethods);
 			} else {
-				nMethods = clazz.getMethods();
-				oMethods = new Method[0];
+				ClassFile.Member[] publicMethods =
+					indexes.get(ret.name, classes).methods;
+				ret.newMethods = new MethodInfo[publicMethods.length];
+				for (int i = 0; i < publicMethods.length; i++)
+					ret.newMethods[i] = getMethodInfo(publicMethods[i],
+									  classes, indexes);
+				ret.overwrittenMethods = new MethodInfo[0];
 			}
-			
-			int modifiers = clazz.getModifiers ();
-			return new ClassInfo(clazz, 
-				superclass, 
-				interfaces, 
-				ctors, 
-				nMethods,
-				oMethods,
-				fields,
-				modifiers);
+
+			ret.declaredClasses = classFile.getDeclaredClasses();
+			return ret;
 		}
-		
-		private static boolean areEqual(Class[] thisTypes, Class[] parentTypes) {
-			int numberTypes = thisTypes.length;
-			if (numberTypes != parentTypes.length)
+
+		private static FieldInfo getFieldInfo(ClassFile.Member field,
+						      ClassFile.Repository classes,
+						      MethodIndexes indexes) {
+			FieldInfo ret = new FieldInfo();
+			ret.name = field.name;
+			ret.modifiers = field.accessFlags;
+			ret.type = getTypeString(field.descriptor);
+			ret.nonInstantiable = Modifier.isPublic(field.accessFlags)
+				&& isNonInstantiable(field.descriptor, classes,
+						     indexes);
+
+			/* Formatted the way Field.getBoolean(), getDouble()
+			   and getLong() used to print them.  */
+			Object value = field.constantValue;
+			if (value != null
+			    && Modifier.isStatic(field.accessFlags)
+			    && field.descriptor.length() == 1) {
+				switch (field.descriptor.charAt(0)) {
+				case 'Z':
+					ret.value = Boolean.toString(
+						((Number) value).intValue() != 0);
+					break;
+				case 'F':
+				case 'D':
+					ret.value = Double.toString(
+						((Number) value).doubleValue());
+					break;
+				default:
+					ret.value = Long.toString(
+						((Number) value).longValue());
+				}
+			}
+			return ret;
+		}
+
+		private static MethodInfo getMethodInfo(ClassFile.Member method,
+							ClassFile.Repository classes,
+							MethodIndexes indexes) {
+			MethodInfo ret = new MethodInfo();
+			ret.name = method.name;
+			ret.modifiers = method.accessFlags;
+
+			String[] params = getParameterDescriptors(method.descriptor);
+			ret.parameterTypes = new String[params.length];
+			for (int i = 0; i < params.length; i++)
+				ret.parameterTypes[i] = getTypeString(params[i]);
+
+			String returnType = getReturnDescriptor(method.descriptor);
+			ret.returnType = getTypeString(returnType);
+			ret.nonInstantiable = isNonInstantiable(returnType, classes,
+								indexes);
+			ret.exceptionTypes = method.exceptions;
+			return ret;
+		}
+
+		private static boolean isNonInstantiable(String descriptor,
+							 ClassFile.Repository classes,
+							 MethodIndexes indexes) {
+			String nonArrayType = descriptor.substring(
+				descriptor.lastIndexOf('[') + 1);
+			if (nonArrayType.charAt(0) != 'L')
 				return false;
-			
-			for (int i = 0; i < numberTypes; i++) {
-				Class c1 = thisTypes[i];
-				Class c2 = parentTypes[i];
-				if (c1 != c2)
-					return false;
+
+			ClassFile type = classes.lookup(getTypeString(nonArrayType));
+			if (type == null)
+				return false;
+			int modifiers = type.getModifiers();
+			return Modifier.isInterface(modifiers)
+				|| Modifier.isAbstract(modifiers)
+				|| indexes.get(type.name, classes).hasAbstractMethods;
+		}
+
+	}
+
+	/**
+	 * The public methods of a type, as Class.getMethods() sees them,
+	 * hashed on name plus parameter descriptor.
+	 */
+	private static class MethodIndex {
+		public ClassFile.Member[] methods;
+		public HashSet signatures;
+		public boolean hasAbstractMethods;
+		/** Classes read to build the index.  */
+		public String[] types;
+	}
+
+	private static String getSignature(ClassFile.Member m) {
+		return m.name + m.descriptor.substring(0,
+			m.descriptor.indexOf(')') + 1);
+	}
+
+	/**
+	 * Method indexes of every type seen during a run. Each index is
+	 * built once and then shared by all the subclasses of the type,
+	 * so override detection is a hash lookup per method.
+	 */
+	private static class MethodIndexes {
+		private final ConcurrentHashMap indexes = new ConcurrentHashMap();
+
+		public MethodIndex get(String name, ClassFile.Repository classes) {
+			MethodIndex index = (MethodIndex) indexes.get(name);
+			if (index == null) {
+				index = build(name, classes);
+				indexes.putIfAbsent(name, index);
+			}
+			/* Replay the lookups so a recording repository
+			   still sees every class the index depends on.  */
+			for (int i = 0; i < index.types.length; i++)
+				classes.lookup(index.types[i]);
+			return index;
+		}
+
+		private static MethodIndex build(String name,
+						 ClassFile.Repository classes) {
+			LinkedHashSet types = new LinkedHashSet();
+			MethodIndex ret = new MethodIndex();
+			ret.methods = getPublicMethods(name,
+				classes.recording(types));
+			ret.types = (String[]) types.toArray(new String[types.size()]);
+			ret.signatures = new HashSet();
+			for (int i = 0; i < ret.methods.length; i++) {
+				ClassFile.Member m = ret.methods[i];
+				ret.signatures.add(getSignature(m));
+				if (Modifier.isAbstract(m.accessFlags))
+					ret.hasAbstractMethods = true;
+			}
+			return ret;
+		}
+
+		/**
+		 * Returns the public methods of a type, including the
+		 * inherited ones, as Class.getMethods() would. A method
+		 * declared closer to the type hides the ones it overrides.
+		 */
+		private static ClassFile.Member[] getPublicMethods(String name,
+								  ClassFile.Repository classes) {
+			LinkedHashMap methods = new LinkedHashMap();
+			ArrayList interfaces = new ArrayList();
+			boolean first = true;
+			for (ClassFile c = classes.lookup(name); c != null;
+			     c = getSuperclass(c, classes)) {
+				addPublicMethods(methods, c, first);
+				first = false;
+				for (int i = 0; i < c.interfaces.length; i++)
+					interfaces.add(c.interfaces[i]);
+			}
+			for (int i = 0; i < interfaces.size(); i++) {
+				ClassFile iface = classes.lookup((String) interfaces.get(i));
+				if (iface == null)
+					continue;
+				addPublicMethods(methods, iface, false);
+				for (int j = 0; j < iface.interfaces.length; j++)
+					interfaces.add(iface.interfaces[j]);
+			}
+			return (ClassFile.Member[]) methods.values().toArray(
+				new ClassFile.Member[methods.size()]);
+		}
+
+		private static ClassFile getSuperclass(ClassFile c,
+						       ClassFile.Repository classes) {
+			/* Interfaces do not inherit java.lang.Object.  */
+			if (c.superName == null
+			    || Modifier.isInterface(c.accessFlags))
+				return null;
+			return classes.lookup(c.superName);
+		}
+
+		private static void addPublicMethods(LinkedHashMap methods,
+						     ClassFile c,
+						     boolean declared) {
+			boolean isInterface = Modifier.isInterface(c.accessFlags);
+			for (int i = 0; i < c.methods.length; i++) {
+				ClassFile.Member m = c.methods[i];
+				if (!Modifier.isPublic(m.accessFlags)
+				    || m.name.charAt(0) == '<')
+					continue;
+				/* Static interface methods are not inherited.  */
+				if (isInterface && !declared
+				    && Modifier.isStatic(m.accessFlags))
+					continue;
+				String key = m.name + m.descriptor;
+				if (!methods.containsKey(key))
+					methods.put(key, m);
 			}
-			
-			return true;
 		}
 	}
 
-	private ClassInfo getClassFromName(String name, ClassLoader loader) {
+	private MethodIndexes methodIndexes;
+
+	private ClassInfo getClassFromName(String name, ClassFile.Repository classes) {
 		ClassInfo ret = null;
 		try {
-			ret = ClassInfo.loadClass(name, loader); 
-		} catch (NoClassDefFoundError e) {
-			/* Not fatal. We can continue.  */
-			System.out.print("Warning: generation failed for " + name);
-			System.out.println(". Reason: " + e + ".");
+			ret = ClassInfo.loadClass(name, classes, methodIndexes);
+		} catch (LinkageError e) {
+			/* Not fatal. We can continue. One println so
+			   parallel scans do not interleave the warning.  */
+			System.out.println("Warning: generation failed for "
+					   + name + ". Reason: " + e + ".");
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -453,12 +676,143 @@ class JavaApiXmlGenerator {
 		return !entry.isDirectory() && isJavaClass(entry.getName());
 	}
 
-	public void generate(String[] args) throws IOException {
-		ClassLoader classLoader = new URLClassLoader(
-			new URL[] {
-				new File(args[0]).toURL()
+	/**
+	 * Number of worker threads used to reflect the jar. Zero or one
+	 * means the classic serial walk.
+	 */
+	private int parallelism = 0;
+
+	/** Classes reflected by each fork-join leaf task.  */
+	private final static int CLASSES_PER_TASK = 16;
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	private ArrayList getClassNames(JarFile jar) {
+		ArrayList names = new ArrayList();
+		Enumeration entries = jar.entries();
+		while (entries.hasMoreElements()) {
+			JarEntry entry = (JarEntry) entries.nextElement();
+			if (isJarEntryJavaClass(entry))
+				names.add(getClassNameFromFilename(entry.getName()));
+		}
+		return names;
+	}
+
+	/** Bump whenever the generated XML changes.  */
+	private final static String CACHE_VERSION = "2";
+
+	private FingerprintCache cache;
+
+	/**
+	 * Reuses the XML fragments of a previous run. A fragment is
+	 * regenerated when any class file it was read from changed,
+	 * which covers subclasses of a changed parent too.
+	 */
+	public void setCache(File file) throws IOException {
+		this.cache = new FingerprintCache(file,
+			"JavaApiXmlGenerator " + CACHE_VERSION
+			+ " " + System.getProperty("java.version"));
+	}
+
+	private long[] getFingerprints(String[] dependencies,
+				       ClassFile.Repository classes) {
+		long[] ret = new long[dependencies.length * 2];
+		for (int i = 0; i < dependencies.length; i++) {
+			long[] fingerprint = classes.getFingerprint(dependencies[i]);
+			ret[i * 2] = fingerprint[0];
+			ret[i * 2 + 1] = fingerprint[1];
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the XML fragment of a class, or <code>null</code> if
+	 * the class could not be read.
+	 */
+	private byte[] getClassFragment(String name, ClassFile.Repository classes) {
+		if (cache == null)
+			return emitClassFragment(name, classes);
+
+		FingerprintCache.Entry entry = cache.get(name);
+		if (entry != null && entry.matches(
+			getFingerprints(entry.dependencies, classes))) {
+			cache.put(name, entry);
+			return entry.data;
+		}
+
+		LinkedHashSet read = new LinkedHashSet();
+		byte[] fragment = emitClassFragment(name, classes.recording(read));
+		if (fragment != null) {
+			String[] dependencies = new String[read.size()];
+			read.toArray(dependencies);
+			cache.put(name, new FingerprintCache.Entry(dependencies,
+				getFingerprints(dependencies, classes), fragment));
+		}
+		return fragment;
+	}
+
+	private byte[] emitClassFragment(String name, ClassFile.Repository classes) {
+		ClassInfo clazz = getClassFromName(name, classes);
+		if (clazz == null)
+			return null;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buf);
+		emitClass(out, clazz, classes);
+		out.flush();
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Reflects a range of the jar's classes. Ranges are split in
+	 * halves until they are small enough; every class writes its
+	 * fragment into its own slot so the merge order is the jar order.
+	 */
+	private class ScanTask extends RecursiveAction {
+		/** Never serialized, declared for the lint.  */
+		private static final long serialVersionUID = 1L;
+
+		private final String[] names;
+		private final byte[][] fragments;
+		private final ClassFile.Repository classes;
+		private final int start;
+		private final int end;
+
+		ScanTask(String[] names, byte[][] fragments,
+			 ClassFile.Repository classes, int start, int end) {
+			this.names = names;
+			this.fragments = fragments;
+			this.classes = classes;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start <= CLASSES_PER_TASK) {
+				for (int i = start; i < end; i++)
+					fragments[i] = getClassFragment(names[i], classes);
+				return;
 			}
-		);
+			int middle = (start + end) >>> 1;
+			invokeAll(new ScanTask(names, fragments, classes, start, middle),
+				  new ScanTask(names, fragments, classes, middle, end));
+		}
+	}
+
+	private byte[][] scanParallel(String[] names, ClassFile.Repository classes) {
+		byte[][] fragments = new byte[names.length][];
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ScanTask(names, fragments, classes,
+						 0, names.length));
+		} finally {
+			pool.shutdown();
+		}
+		return fragments;
+	}
+
+	public void generate(String[] args) throws IOException {
 		File outFile = new File(args[1]);
 		PrintStream out =
 			new PrintStream(
@@ -471,41 +825,71 @@ class JavaApiXmlGenerator {
 		int numFailed = 0;
 
 		JarFile jar = new JarFile(args[0]);
-		Enumeration entries = jar.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry entry = (JarEntry) entries.nextElement();
-			if (isJarEntryJavaClass(entry)) {
-				ClassInfo clazz =
-					getClassFromName(
-						getClassNameFromFilename(
-							entry.getName()),
-						classLoader);
-				if (clazz != null) {
-					emitClass(out, clazz, classLoader);
-					numGenerated++;
-				} else {
-					numFailed++;
-				}
+		ClassFile.Repository classes = new ClassFile.Repository(jar);
+		methodIndexes = new MethodIndexes();
+		ArrayList classNames = getClassNames(jar);
+		String[] names = new String[classNames.size()];
+		classNames.toArray(names);
+
+		byte[][] fragments = null;
+		if (parallelism > 1)
+			fragments = scanParallel(names, classes);
+
+		for (int i = 0; i < names.length; i++) {
+			byte[] fragment = fragments != null
+				? fragments[i]
+				: getClassFragment(names[i], classes);
+			if (fragment != null) {
+				out.write(fragment);
+				numGenerated++;
+			} else {
+				numFailed++;
 			}
 		}
 		emitFooter(out);
 		out.flush();
 
 		printSummary(args[1], numGenerated, numFailed);
+		if (cache != null) {
+			cache.save();
+			System.out.println(cache.getReused()
+				+ " class definitions reused from cache.");
+		}
 	}
 
 	private static void usage() {
 		System.out.println("com.olympum.tools.JavaApiXmlGenerator: " +
-				   "<jar-file> <api-xml>");
+				   "[-j <threads>] [-cache <file>] "
+				   + "<jar-file> <api-xml>");
 		System.exit(1);
 	}
 
 	public static void main(String[] args) {
-		if (args.length != 2)
+		JavaApiXmlGenerator gen = new JavaApiXmlGenerator();
+		File cacheFile = null;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if ("-j".equals(args[first]) && first + 1 < args.length) {
+				int threads = Integer.parseInt(args[first + 1]);
+				if (threads <= 0)
+					threads = Runtime.getRuntime().availableProcessors();
+				gen.setParallelism(threads);
+				first += 2;
+			} else if ("-cache".equals(args[first])
+				   && first + 1 < args.length) {
+				cacheFile = new File(args[first + 1]);
+				first += 2;
+			} else {
+				usage();
+			}
+		}
+		if (args.length - first != 2)
 			usage();
+		String[] files = new String[] { args[first], args[first + 1] };
 		try {
-			JavaApiXmlGenerator gen = new JavaApiXmlGenerator();
-			gen.generate(args);
+			if (cacheFile != null)
+				gen.setCache(cacheFile);
+			gen.generate(files);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
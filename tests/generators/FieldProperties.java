@@ -0,0 +1,20 @@
+public class FieldProperties {
+	public int count;
+	public static long total;
+	public final double ratio = 1.5;
+	public static final String NAME = new String("computed");
+	public static final int CONSTANT = 3;
+	public String label;
+	public int[] values;
+	public String[] tags;
+	public FieldProperties next;
+	public Runnable task;
+	public int base;
+	public boolean fixed;
+	public int size;
+	public int size_;
+	public Class clazz;
+	public int JClass;
+	public static int ctor0;
+	public int size() { return size; }
+}
@@ -0,0 +1,9 @@
+public class ValueReader {
+	public int getId() { return 0; }
+	public String getName() { return null; }
+	public boolean isActive() { return false; }
+	public double getScore() { return 0; }
+	public String getDescription() { return null; }
+	public void setId(int id) {}
+	public static ValueReader getDefault() { return null; }
+}